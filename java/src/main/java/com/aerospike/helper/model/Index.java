@@ -34,6 +34,9 @@ import com.aerospike.client.query.IndexType;
 public class Index {
 
 	protected Map<String, String> values;
+	protected boolean hasStats = false;
+	protected long keys = 0;
+	protected long entries = 0;
 	public Index(String info) {
 		setIndexInfo(info);
 
@@ -45,6 +48,17 @@ public class Index {
 
 
 
+	public String getNamespace() {
+		return values.get("ns");
+	}
+
+	public String getSet() {
+		String set = values.get("set");
+		if (set == null || set.equalsIgnoreCase("NULL"))
+			return null;
+		return set;
+	}
+
 	public List<NameValuePair> getValues(){
 		List<NameValuePair> result = new ArrayList<NameValuePair>();
 		Set<String> keys = this.values.keySet();
@@ -76,6 +90,60 @@ public class Index {
 		this.values.put(kvParts[0], kvParts[1]);
 	}
 
+	/**
+	 * Merges the statistics of the Index on one node, from the "sindex/&lt;namespace&gt;/&lt;indexname&gt;" info message.
+	 * Entries are summed across the nodes, the number of distinct keys is the largest seen on a node.
+	 * @param info Info string from node
+	 */
+	public void mergeIndexStats(String info){
+		//keys=1000:entries=1000:ibtr_memory_used=18688:nbtr_memory_used=31000:si_accounted_memory=49688:load_pct=100:...
+		if (info == null || info.isEmpty())
+			return;
+		boolean found = false;
+		String[] parts = info.split("[:;]");
+		for (String part : parts){
+			String[] kv = part.split("=");
+			if (kv.length != 2)
+				continue;
+			try {
+				if (kv[0].equals("keys")){
+					keys = Math.max(keys, Long.parseLong(kv[1]));
+					found = true;
+				} else if (kv[0].equals("entries")){
+					entries += Long.parseLong(kv[1]);
+					found = true;
+				}
+			} catch (NumberFormatException e){
+				// not a statistic
+			}
+		}
+		hasStats = hasStats || found;
+	}
+
+	public void clearStats(){
+		hasStats = false;
+		keys = 0;
+		entries = 0;
+	}
+	/**
+	 * @return true if statistics have been merged into this Index
+	 */
+	public boolean hasStats() {
+		return hasStats;
+	}
+	/**
+	 * @return the number of distinct indexed values
+	 */
+	public long getKeys() {
+		return keys;
+	}
+	/**
+	 * @return the number of index entries, one per record, or one per element of an indexed collection
+	 */
+	public long getEntries() {
+		return entries;
+	}
+
 	@Override
 	public String toString() {
 		return String.format("Index:%s:%s:%s:%s", this.getName(), this.getBin(), this.getType(), this.getCollectionType());
@@ -119,4 +187,11 @@ public class Index {
 				this.getCollectionType()==((Index)other).getCollectionType()
 				);
 	}
+
+	@Override
+	public int hashCode() {
+		String bin = getBin();
+		String name = getName();
+		return 31 * ((bin == null) ? 0 : bin.hashCode()) + ((name == null) ? 0 : name.hashCode());
+	}
 }
@@ -178,7 +178,86 @@ public class Namespace{
 	}
 
 	public Set findSet(String tableName) {
+		if (this.sets == null)
+			return null;
 		return this.sets.get(tableName);
 	}
 
+	/**
+	 * Gets a numeric value of the Namespace, trying each name in turn, 
+	 * as some statistics were renamed in Aerospike 3.9
+	 * @param defaultValue the value returned if there is no numeric value
+	 * @param names the names of the value
+	 * @return the value, or defaultValue
+	 */
+	public long getLongValue(long defaultValue, String... names){
+		for (String name : names){
+			NameValuePair nvp = values.get(name);
+			if (nvp == null || nvp.value == null)
+				continue;
+			try {
+				return Long.parseLong(nvp.value.toString());
+			} catch (NumberFormatException e){
+				// not a number
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Gets a boolean value of the Namespace, trying each name in turn
+	 * @param names the names of the value
+	 * @return true if a value is "true"
+	 */
+	public boolean getBooleanValue(String... names){
+		for (String name : names){
+			NameValuePair nvp = values.get(name);
+			if (nvp != null && nvp.value != null)
+				return Boolean.parseBoolean(nvp.value.toString());
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the Namespace is above its high water mark and evicts records
+	 */
+	public boolean isHwmBreached(){
+		return getBooleanValue("hwm_breached", "hwm-breached");
+	}
+
+	/**
+	 * @return true if the Namespace rejects writes
+	 */
+	public boolean isStopWrites(){
+		return getBooleanValue("stop_writes", "stop-writes");
+	}
+
+	/**
+	 * @return the percentage of free memory, 100 if it is not known
+	 */
+	public long getFreePctMemory(){
+		return getLongValue(100, "memory_free_pct", "free-pct-memory");
+	}
+
+	/**
+	 * @return the percentage of memory used above which records are evicted, 100 if it is not known
+	 */
+	public long getHighWaterMemoryPct(){
+		return getLongValue(100, "high-water-memory-pct");
+	}
+
+	/**
+	 * @return the number of objects in the Namespace, 0 if it is not known
+	 */
+	public long getObjects(){
+		NameValuePair objects = values.get("objects");
+		if (objects == null)
+			return 0;
+		try {
+			return Long.parseLong(objects.value.toString());
+		} catch (NumberFormatException e){
+			return 0;
+		}
+	}
+
 }
@@ -115,6 +115,22 @@ public class Set {
 			applysetName();
 		}
 	}
+	/**
+	 * @return the number of objects in the Set, 0 if it is not known
+	 */
+	public long getObjects(){
+		NameValuePair objects = values.get("objects");
+		if (objects == null)
+			objects = values.get("n_objects");
+		if (objects == null)
+			return 0;
+		try {
+			return Long.parseLong(objects.value.toString());
+		} catch (NumberFormatException e){
+			return 0;
+		}
+	}
+
 	public void setValues(Map<String, NameValuePair> newValues){
 		this.values = newValues;
 	}
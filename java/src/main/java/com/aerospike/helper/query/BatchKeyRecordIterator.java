@@ -0,0 +1,103 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import java.util.List;
+
+import com.aerospike.client.AerospikeClient;
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import com.aerospike.client.policy.BatchPolicy;
+import com.aerospike.client.query.KeyRecord;
+/**
+ * Iterator over records read by Key with batch reads, one chunk of Keys at a time.
+ * Keys without a record, e.g. deleted since the Keys were collected, are skipped.
+ * @author peter
+ *
+ */
+class BatchKeyRecordIterator extends KeyRecordIterator {
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	private AerospikeClient client;
+	private BatchPolicy policy;
+	private List<Key> keys;
+	private String[] binNames;
+	private boolean metaOnly;
+	private int chunkSize;
+	private int position = 0;
+	private Key[] chunk;
+	private Record[] records;
+	private int index = 0;
+	private KeyRecord nextRecord;
+
+	/**
+	 * @param client the AerospikeClient
+	 * @param policy the BatchPolicy, may be null
+	 * @param namespace the namespace of the Keys
+	 * @param keys the Keys to read
+	 * @param binNames the Bins to read, null for all Bins
+	 * @param metaOnly true to read only the record meta data
+	 * @param chunkSize the number of Keys in each batch read
+	 */
+	BatchKeyRecordIterator(AerospikeClient client, BatchPolicy policy, String namespace, List<Key> keys,
+			String[] binNames, boolean metaOnly, int chunkSize) {
+		super(namespace);
+		this.client = client;
+		this.policy = policy;
+		this.keys = keys;
+		this.binNames = binNames;
+		this.metaOnly = metaOnly;
+		this.chunkSize = Math.max(1, chunkSize);
+	}
+
+	@Override
+	protected boolean fetchHasNext() {
+		while (nextRecord == null){
+			if (records == null || index >= records.length){
+				if (position >= keys.size())
+					return false;
+				readChunk();
+			}
+			Record record = records[index];
+			if (record != null)
+				nextRecord = new KeyRecord(chunk[index], record);
+			index++;
+		}
+		return true;
+	}
+
+	@Override
+	protected KeyRecord fetchNext() {
+		if (!fetchHasNext())
+			return null;
+		KeyRecord keyRecord = nextRecord;
+		nextRecord = null;
+		return keyRecord;
+	}
+
+	private void readChunk(){
+		int end = Math.min(keys.size(), position + chunkSize);
+		chunk = keys.subList(position, end).toArray(new Key[end - position]);
+		position = end;
+		if (metaOnly)
+			records = client.getHeader(policy, chunk);
+		else if (binNames != null && binNames.length > 0)
+			records = client.get(policy, chunk, binNames);
+		else
+			records = client.get(policy, chunk);
+		index = 0;
+	}
+}
@@ -0,0 +1,80 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import java.util.List;
+
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import com.aerospike.client.Value;
+import com.aerospike.client.query.PredExp;
+/**
+ * Qualifier selecting the records whose digest modulo a number equals a value,
+ * to split a set into buckets of about the same size. As on the server, the modulo is applied
+ * to the last 4 bytes of the digest read as a little endian unsigned integer.
+ * @author peter
+ *
+ */
+public class DigestModuloQualifier extends Qualifier {
+	private static final long serialVersionUID = 6193824503810946425L;
+
+	/**
+	 * @param modulo the number of buckets
+	 * @param value the bucket, from 0 to modulo - 1
+	 */
+	public DigestModuloQualifier(int modulo, int value) {
+		super("__digest_modulo", FilterOperation.EQ, Value.get(value), Value.get(modulo));
+	}
+
+	public int getModulo(){
+		return getValue2().toInteger();
+	}
+
+	public int getBucket(){
+		return getValue1().toInteger();
+	}
+
+	/**
+	 * @return the bucket of a digest, from 0 to modulo - 1
+	 */
+	public static int bucket(byte[] digest, int modulo){
+		long value = (digest[16] & 0xFFL) | (digest[17] & 0xFFL) << 8
+				| (digest[18] & 0xFFL) << 16 | (digest[19] & 0xFFL) << 24;
+		return (int) (value % modulo);
+	}
+
+	@Override
+	public boolean matches(Key key, Record record) {
+		if (key == null || key.digest == null)
+			return false;
+		return bucket(key.digest, getModulo()) == getBucket();
+	}
+
+	@Override
+	public String luaFilterString(List<Value> args) {
+		return String.format("(bytes.get_byte(digest, 17) + bytes.get_byte(digest, 18) * 256 + bytes.get_byte(digest, 19) * 65536 "
+				+ "+ bytes.get_byte(digest, 20) * 16777216) %% %s == %s",
+				luaValue(getValue2(), args), luaValue(getValue1(), args));
+	}
+
+	@Override
+	protected boolean appendPredExp(List<PredExp> predExps) {
+		predExps.add(PredExp.recDigestModulo(getModulo()));
+		predExps.add(PredExp.integerValue(getBucket()));
+		predExps.add(PredExp.integerEqual());
+		return true;
+	}
+}
@@ -15,9 +15,15 @@
  */
 package com.aerospike.helper.query;
 
+import java.util.List;
+
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
 import com.aerospike.client.Value;
+import com.aerospike.client.query.PredExp;
 /**
- * Qualifier used to query by expiry epoch
+ * Qualifier used to query by expiry, expressed as the seconds the record
+ * has left to live. This is the value the Lua filter binds to "expiry".
  * @author peter
  *
  */
@@ -29,4 +35,14 @@ public class ExpiryQualifier extends Qualifier {
 	protected String luaFieldString(String field) {
 		return "expiry";
 	}
+
+	@Override
+	protected Object fieldValue(Key key, Record record) {
+		return record.getTimeToLive(); // same as record.ttl() in the Lua filter
+	}
+
+	@Override
+	protected boolean appendPredExp(List<PredExp> predExps) {
+		return false; // the expiry is not a Bin, it is evaluated by the Lua filter
+	}
 }
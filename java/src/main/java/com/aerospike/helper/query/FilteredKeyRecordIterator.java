@@ -0,0 +1,81 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.aerospike.client.query.KeyRecord;
+/**
+ * Iterator that returns the records of another KeyRecordIterator 
+ * matching every Qualifier, evaluated in the client with {@link Qualifier#matches(com.aerospike.client.Key, com.aerospike.client.Record)}.
+ * The records that match can be projected to some Bins, when the source read the Bins of the Qualifiers too.
+ * @author peter
+ *
+ */
+class FilteredKeyRecordIterator extends KeyRecordIterator {
+	private KeyRecordIterator source;
+	private List<Qualifier> qualifiers;
+	private String[] binNames;
+	private KeyRecord nextRecord;
+
+	FilteredKeyRecordIterator(String namespace, KeyRecordIterator source, List<Qualifier> qualifiers) {
+		this(namespace, source, qualifiers, null);
+	}
+
+	/**
+	 * @param binNames the Bins returned, none for meta data only, null for every Bin read
+	 */
+	FilteredKeyRecordIterator(String namespace, KeyRecordIterator source, List<Qualifier> qualifiers, String[] binNames) {
+		super(namespace);
+		this.source = source;
+		this.qualifiers = qualifiers;
+		this.binNames = binNames;
+	}
+
+	@Override
+	protected boolean fetchHasNext() {
+		while (nextRecord == null && source.hasNext()){
+			KeyRecord keyRecord = source.next();
+			if (keyRecord != null && matches(keyRecord))
+				nextRecord = QueryEngine.project(keyRecord, binNames);
+		}
+		return nextRecord != null;
+	}
+
+	@Override
+	protected KeyRecord fetchNext() {
+		if (!fetchHasNext())
+			return null;
+		KeyRecord keyRecord = nextRecord;
+		nextRecord = null;
+		return keyRecord;
+	}
+
+	private boolean matches(KeyRecord keyRecord){
+		for (Qualifier qualifier : qualifiers){
+			if (!qualifier.matches(keyRecord.key, keyRecord.record))
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		source.close();
+		super.close();
+	}
+}
@@ -0,0 +1,131 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+/**
+ * Minimal GeoJSON support to evaluate geo Qualifiers in the client.
+ * It reads the Point, Polygon (outer ring only) and AeroCircle shapes used by Aerospike,
+ * distances are great circle distances in meters, as on the server.
+ * @author peter
+ *
+ */
+class GeoJSON {
+	static final double EARTH_RADIUS = 6371000.0;
+
+	private static final Pattern TYPE = Pattern.compile("\"type\"\\s*:\\s*\"(\\w+)\"");
+	private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?([eE][-+]?\\d+)?");
+
+	final String type;
+	final double[] coordinates;
+
+	private GeoJSON(String type, double[] coordinates) {
+		this.type = type;
+		this.coordinates = coordinates;
+	}
+
+	/**
+	 * Parses a GeoJSON string
+	 * @return the shape, or null if it is not a Point, Polygon or AeroCircle
+	 */
+	static GeoJSON parse(Object value){
+		if (value == null)
+			return null;
+		String json = value.toString();
+		Matcher typeMatcher = TYPE.matcher(json);
+		if (!typeMatcher.find())
+			return null;
+		String type = typeMatcher.group(1);
+		int start = json.indexOf("\"coordinates\"");
+		if (start < 0)
+			return null;
+		String coordinates = json.substring(start + "\"coordinates\"".length());
+		if (type.equals("Polygon")){
+			int end = coordinates.indexOf("]]");
+			if (end >= 0)
+				coordinates = coordinates.substring(0, end);
+		}
+		List<Double> numbers = new ArrayList<Double>();
+		Matcher numberMatcher = NUMBER.matcher(coordinates);
+		while (numberMatcher.find())
+			numbers.add(Double.parseDouble(numberMatcher.group()));
+		double[] values = new double[numbers.size()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = numbers.get(i);
+		if (type.equals("Point") && values.length >= 2)
+			return new GeoJSON(type, values);
+		if (type.equals("AeroCircle") && values.length >= 3)
+			return new GeoJSON(type, values);
+		if (type.equals("Polygon") && values.length >= 6)
+			return new GeoJSON(type, values);
+		return null;
+	}
+
+	boolean isPoint(){
+		return type.equals("Point");
+	}
+
+	/**
+	 * @return true if the point, longitude then latitude, is in this region
+	 */
+	boolean contains(double lon, double lat){
+		if (type.equals("AeroCircle"))
+			return distance(coordinates[0], coordinates[1], lon, lat) <= coordinates[2];
+		if (type.equals("Polygon"))
+			return polygonContains(lon, lat);
+		return false;
+	}
+
+	/**
+	 * @return true if this shape is a point within the region
+	 */
+	boolean within(GeoJSON region){
+		return region != null && isPoint() && region.contains(coordinates[0], coordinates[1]);
+	}
+
+	/**
+	 * @return true if this shape is a point within the circle
+	 */
+	boolean withinRadius(double lon, double lat, double radius){
+		return isPoint() && distance(lon, lat, coordinates[0], coordinates[1]) <= radius;
+	}
+
+	private boolean polygonContains(double lon, double lat){
+		boolean inside = false;
+		int points = coordinates.length / 2;
+		for (int i = 0, j = points - 1; i < points; j = i++){
+			double xi = coordinates[2 * i], yi = coordinates[2 * i + 1];
+			double xj = coordinates[2 * j], yj = coordinates[2 * j + 1];
+			if (((yi > lat) != (yj > lat)) && (lon < (xj - xi) * (lat - yi) / (yj - yi) + xi))
+				inside = !inside;
+		}
+		return inside;
+	}
+
+	/**
+	 * Haversine distance in meters
+	 */
+	static double distance(double lon1, double lat1, double lon2, double lat2){
+		double dLat = Math.toRadians(lat2 - lat1);
+		double dLon = Math.toRadians(lon2 - lon1);
+		double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+				+ Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+		return 2 * EARTH_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+	}
+}
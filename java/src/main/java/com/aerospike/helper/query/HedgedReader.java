@@ -0,0 +1,246 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.Record;
+import com.aerospike.client.ResultCode;
+import com.aerospike.client.policy.Policy;
+import com.aerospike.client.policy.Replica;
+/**
+ * Reads single records with a hedge and bounded retries.
+ * <p>
+ * The read is sent to the master of the record. If it has not answered after a delay,
+ * the percentile of the recent read latencies, a second read is sent with {@link Replica#MASTER_PROLES},
+ * which spreads it over the master and the replicas. Both reads run on the executor, the caller waits 
+ * for the first that succeeds and the other is discarded, so a slow master does not hold the read back.
+ * No thread waits for the delay, the second read is only submitted once it has passed.
+ * Reads that fail with a transient error, such as a timeout or an unavailable node,
+ * are retried up to maxRetries times, after a backoff doubled on each retry.
+ * @author peter
+ *
+ */
+public class HedgedReader {
+	public static final double DEFAULT_PERCENTILE = 95.0;
+	public static final int DEFAULT_MAX_RETRIES = 2;
+	public static final long DEFAULT_BACKOFF_MILLIS = 5;
+	public static final long DEFAULT_INITIAL_DELAY_MILLIS = 5;
+	static final int SAMPLES = 1024;
+	static final int MIN_SAMPLES = 100;
+	static final int RECOMPUTE_INTERVAL = 128;
+	static final long MIN_DELAY_NANOS = 200000L;
+
+	/**
+	 * A read of a single record with a Policy
+	 */
+	public interface Read {
+		/**
+		 * @param policy the Policy of the read, with the Replica to read from
+		 * @return the Record, null if it does not exist
+		 */
+		Record read(Policy policy) throws AerospikeException;
+	}
+
+	private final ExecutorService executor;
+	private final Policy masterPolicy;
+	private final Policy hedgePolicy;
+	private final double percentile;
+	private final int maxRetries;
+	private final long backoffMillis;
+
+	private final long[] latencies = new long[SAMPLES];
+	private int sampleCount = 0;
+	private int nextSample = 0;
+	private volatile long hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_INITIAL_DELAY_MILLIS);
+
+	private final AtomicLong reads = new AtomicLong();
+	private final AtomicLong hedged = new AtomicLong();
+	private final AtomicLong hedgeWins = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+
+	/**
+	 * @param executor the ExecutorService running the reads
+	 * @param policy the Policy of the reads, e.g. the readPolicyDefault of the client, its retries are replaced by those of the reader
+	 * @param percentile the percentile of the read latencies after which a read is hedged, e.g. 95.0
+	 * @param maxRetries the maximum number of retries of a read that fails with a transient error
+	 * @param backoffMillis the wait before the first retry in milliseconds
+	 */
+	public HedgedReader(ExecutorService executor, Policy policy, double percentile, int maxRetries, long backoffMillis) {
+		super();
+		this.executor = executor;
+		this.masterPolicy = new Policy(policy);
+		this.masterPolicy.replica = Replica.MASTER;
+		this.masterPolicy.maxRetries = 0;
+		this.hedgePolicy = new Policy(policy);
+		this.hedgePolicy.replica = Replica.MASTER_PROLES;
+		this.hedgePolicy.maxRetries = 0;
+		this.percentile = Math.min(100.0, Math.max(0.0, percentile));
+		this.maxRetries = Math.max(0, maxRetries);
+		this.backoffMillis = backoffMillis;
+	}
+
+	/**
+	 * Reads a record, hedged and retried
+	 * @param read the read
+	 * @return the Record, null if it does not exist
+	 */
+	public Record get(Read read){
+		reads.incrementAndGet();
+		for (int attempt = 0; ; attempt++){
+			try {
+				return hedgedGet(read);
+			} catch (AerospikeException e) {
+				if (attempt >= maxRetries || !isTransient(e.getResultCode()))
+					throw e;
+				retries.incrementAndGet();
+				backoff(attempt);
+			}
+		}
+	}
+
+	private Record hedgedGet(Read read){
+		CompletionService<Record> completion = new ExecutorCompletionService<Record>(executor);
+		List<Future<Record>> futures = new ArrayList<Future<Record>>(2);
+		futures.add(completion.submit(timed(read, masterPolicy)));
+		try {
+			Future<Record> done = completion.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+			if (done == null){
+				hedged.incrementAndGet();
+				futures.add(completion.submit(timed(read, hedgePolicy)));
+			}
+			AerospikeException error = null;
+			for (int pending = futures.size(); pending > 0; pending--){
+				if (done == null)
+					done = completion.take();
+				try {
+					Record record = done.get();
+					if (futures.size() > 1 && done != futures.get(0))
+						hedgeWins.incrementAndGet();
+					return record;
+				} catch (ExecutionException e) {
+					error = (e.getCause() instanceof AerospikeException)
+							? (AerospikeException) e.getCause() : new AerospikeException(e.getCause());
+				}
+				done = null;
+			}
+			throw error;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AerospikeException(e);
+		} finally {
+			// the losing read completes on its own, its result is discarded
+			for (Future<Record> future : futures)
+				future.cancel(false);
+		}
+	}
+
+	/*
+	 * Records the latency of each read that succeeds, including the reads that lose the race,
+	 * so the percentile follows the latency of the cluster and not of the hedged reads
+	 */
+	private Callable<Record> timed(final Read read, final Policy policy){
+		return new Callable<Record>() {
+			@Override
+			public Record call() throws Exception {
+				long start = System.nanoTime();
+				Record record = read.read(policy);
+				addLatency(System.nanoTime() - start);
+				return record;
+			}
+		};
+	}
+
+	void addLatency(long latencyNanos){
+		long[] snapshot = null;
+		synchronized (latencies) {
+			latencies[nextSample] = latencyNanos;
+			nextSample = (nextSample + 1) % SAMPLES;
+			sampleCount++;
+			if (sampleCount >= MIN_SAMPLES && sampleCount % RECOMPUTE_INTERVAL == 0)
+				snapshot = Arrays.copyOf(latencies, Math.min(sampleCount, SAMPLES));
+		}
+		if (snapshot != null)
+			hedgeDelayNanos = Math.max(MIN_DELAY_NANOS, percentile(snapshot, percentile));
+	}
+
+	/*
+	 * The nearest rank percentile of the latencies, sorts the array
+	 */
+	static long percentile(long[] values, double percentile){
+		Arrays.sort(values);
+		int rank = (int) Math.ceil(percentile / 100.0 * values.length);
+		return values[Math.min(values.length - 1, Math.max(0, rank - 1))];
+	}
+
+	static boolean isTransient(int resultCode){
+		switch (resultCode){
+		case ResultCode.TIMEOUT:
+		case ResultCode.SERVER_NOT_AVAILABLE:
+		case ResultCode.INVALID_NODE_ERROR:
+		case ResultCode.NO_MORE_CONNECTIONS:
+		case ResultCode.CLUSTER_KEY_MISMATCH:
+		case ResultCode.KEY_BUSY:
+		case ResultCode.DEVICE_OVERLOAD:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private void backoff(int attempt){
+		try {
+			Thread.sleep(backoffMillis << Math.min(attempt, 16));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AerospikeException(e);
+		}
+	}
+
+	/**
+	 * @return the delay after which a read is hedged, in milliseconds
+	 */
+	public double getHedgeDelayMillis(){
+		return hedgeDelayNanos / 1000000.0;
+	}
+
+	/**
+	 * Gets the counts of the reader: "read" the records read, "hedged" the reads sent twice,
+	 * "hedgeWins" those answered first by the second read, and "retry" the reads retried
+	 * @return a Map of the counts
+	 */
+	public Map<String, Long> getCounts(){
+		Map<String, Long> counts = new HashMap<String, Long>();
+		counts.put("read", reads.get());
+		counts.put("hedged", hedged.get());
+		counts.put("hedgeWins", hedgeWins.get());
+		counts.put("retry", retries.get());
+		return counts;
+	}
+}
@@ -0,0 +1,169 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.aerospike.client.query.IndexCollectionType;
+import com.aerospike.helper.model.Index;
+/**
+ * An immutable snapshot of the secondary indexes of the cluster, keyed by namespace, set and bin.
+ * <p>
+ * A snapshot is never modified once it is built, so it is read without locks.
+ * The {@link QueryEngine} replaces it with a new snapshot when the indexes are refreshed.
+ * @author peter
+ *
+ */
+public final class IndexCache {
+	public static final IndexCache EMPTY = new IndexCache(Collections.<Index>emptyList());
+
+	private static final String NO_SET = "";
+
+	/* namespace -> set -> bin -> indexes, the indexes without a set are under NO_SET */
+	private final Map<String, Map<String, Map<String, List<Index>>>> bySet;
+	/* bin -> indexes of every namespace */
+	private final Map<String, Set<Index>> byBin;
+	private final List<Index> indexes;
+	private final long created = System.currentTimeMillis();
+
+	/**
+	 * @param indexes the indexes, with their statistics, they must not be modified afterwards
+	 */
+	public IndexCache(Collection<Index> indexes) {
+		super();
+		Map<String, Map<String, Map<String, List<Index>>>> setMap = new HashMap<String, Map<String, Map<String, List<Index>>>>();
+		Map<String, Set<Index>> binMap = new HashMap<String, Set<Index>>();
+		for (Index index : indexes){
+			String namespace = index.getNamespace();
+			String bin = index.getBin();
+			if (namespace == null || bin == null)
+				continue;
+			String set = (index.getSet() == null) ? NO_SET : index.getSet();
+			Map<String, Map<String, List<Index>>> sets = setMap.get(namespace);
+			if (sets == null){
+				sets = new HashMap<String, Map<String, List<Index>>>();
+				setMap.put(namespace, sets);
+			}
+			Map<String, List<Index>> setBins = sets.get(set);
+			if (setBins == null){
+				setBins = new HashMap<String, List<Index>>();
+				sets.put(set, setBins);
+			}
+			add(setBins, bin, index);
+			Set<Index> binSet = binMap.get(bin);
+			if (binSet == null){
+				binSet = new HashSet<Index>();
+				binMap.put(bin, binSet);
+			}
+			binSet.add(index);
+		}
+		for (Map.Entry<String, Set<Index>> entry : binMap.entrySet())
+			entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+		this.bySet = setMap;
+		this.byBin = binMap;
+		this.indexes = Collections.unmodifiableList(new ArrayList<Index>(indexes));
+	}
+
+	private static void add(Map<String, List<Index>> bins, String bin, Index index){
+		List<Index> list = bins.get(bin);
+		if (list == null){
+			list = new ArrayList<Index>(1);
+			bins.put(bin, list);
+		}
+		list.add(index);
+	}
+
+	/**
+	 * Finds the Index a query on a Bin can use. For a set, an Index on the set is preferred
+	 * to an Index on the whole namespace. Without a set, only an Index on the whole namespace is used, 
+	 * as an Index on a set does not hold the records of the other sets.
+	 * @param namespace the namespace of the query
+	 * @param set the set of the query, may be null
+	 * @param bin the Bin
+	 * @param collectionType the IndexCollectionType, null for any
+	 * @return the Index, null if there is none
+	 */
+	public Index find(String namespace, String set, String bin, IndexCollectionType collectionType){
+		Map<String, Map<String, List<Index>>> sets = bySet.get(namespace);
+		if (sets == null)
+			return null;
+		Index found = null;
+		if (set != null)
+			found = find(sets.get(set), bin, collectionType);
+		if (found == null)
+			found = find(sets.get(NO_SET), bin, collectionType);
+		return found;
+	}
+
+	private static Index find(Map<String, List<Index>> bins, String bin, IndexCollectionType collectionType){
+		if (bins == null)
+			return null;
+		List<Index> list = bins.get(bin);
+		if (list == null)
+			return null;
+		for (int i = 0; i < list.size(); i++){
+			Index index = list.get(i);
+			if (collectionType == null || index.getCollectionType() == collectionType)
+				return index;
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if a query on the Bin can use an Index, see {@link #find(String, String, String, IndexCollectionType)}
+	 */
+	public boolean isIndexed(String namespace, String set, String bin){
+		return find(namespace, set, bin, null) != null;
+	}
+
+	/**
+	 * @param bin the Bin
+	 * @return the indexes on the Bin in every namespace, null if there is none
+	 */
+	public Set<Index> getByBin(String bin){
+		return byBin.get(bin);
+	}
+
+	/**
+	 * @return every Index of the snapshot
+	 */
+	public List<Index> getIndexes(){
+		return indexes;
+	}
+
+	public int size(){
+		return indexes.size();
+	}
+
+	/**
+	 * @return the time the snapshot was built, in milliseconds
+	 */
+	public long getCreated(){
+		return created;
+	}
+
+	@Override
+	public String toString() {
+		return "IndexCache " + indexes.size() + " indexes";
+	}
+}
@@ -0,0 +1,284 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.aerospike.client.AerospikeClient;
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.Bin;
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+/**
+ * A bulk update or delete running in the background, see {@link QueryEngine#submitUpdate(String, com.aerospike.client.query.Statement, java.util.List, Qualifier...)}.
+ * <p>
+ * The set is processed in buckets of records selected by a {@link DigestModuloQualifier}.
+ * After each bucket, the progress is saved in a checkpoint record, so a job submitted again
+ * with the same id, after a restart, resumes from the first bucket not completed.
+ * The checkpoint of a completed job is cleared when a job with the same id is submitted, so it runs again.
+ * Cancelling a job stops it within the current bucket, which is processed again when it resumes.
+ * <p>
+ * Each bucket is a separate query, or scan, of the whole set, where the server skips the records
+ * of the other buckets, so n buckets cost about n times the reads of a single query.
+ * A few buckets bound the work lost on a restart without multiplying the load of the cluster.
+ * @author peter
+ *
+ */
+public class Job implements Runnable {
+	private static Logger log = Logger.getLogger(Job.class);
+
+	public static final int DEFAULT_BUCKETS = 4;
+	public static final String DEFAULT_CHECKPOINT_SET = "helper_jobs";
+
+	public enum Status {
+		RUNNING,
+		CANCELLED,
+		DONE,
+		FAILED
+	}
+
+	/*
+	 * The work of one bucket, the Qualifier is null when the job has a single bucket
+	 */
+	interface Work {
+		Map<String, Long> run(Qualifier bucket, Job job);
+	}
+
+	private final String id;
+	private final AerospikeClient client;
+	private final Key checkpointKey;
+	private final int buckets;
+	private final Work work;
+
+	private volatile Status status = Status.RUNNING;
+	private volatile boolean cancelled = false;
+	private volatile int nextBucket = 0;
+	private volatile Throwable error;
+	private volatile WritePipeline pipeline;
+	private final Map<String, Long> totals = new HashMap<String, Long>();
+	private final AtomicLong bucketRead = new AtomicLong();
+	private long restoredRead = 0;
+	private final long started = System.currentTimeMillis();
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	/**
+	 * @param id the id of the job, null for a job without checkpoints
+	 * @param client the AerospikeClient
+	 * @param checkpointKey the Key of the checkpoint record, null for no checkpoints
+	 * @param buckets the number of buckets
+	 * @param work the work of a bucket
+	 */
+	Job(String id, AerospikeClient client, Key checkpointKey, int buckets, Work work) {
+		super();
+		this.id = id;
+		this.client = client;
+		this.checkpointKey = checkpointKey;
+		this.buckets = Math.max(1, buckets);
+		this.work = work;
+	}
+
+	/*
+	 * Restores the checkpoint and runs the job on its own thread,
+	 * so its writes can use the executor of the QueryEngine
+	 */
+	void start(){
+		restore();
+		Thread thread = new Thread(this, "Job-" + id);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void run() {
+		try {
+			for (int bucket = nextBucket; bucket < buckets; bucket++){
+				if (cancelled)
+					break;
+				Qualifier bucketQualifier = (buckets > 1) ? new DigestModuloQualifier(buckets, bucket) : null;
+				Map<String, Long> counts = work.run(bucketQualifier, this);
+				synchronized (totals) {
+					add(counts);
+					bucketRead.set(0);
+					pipeline = null;
+				}
+				if (cancelled)
+					break; // the bucket is incomplete
+				nextBucket = bucket + 1;
+				checkpoint();
+			}
+			status = cancelled ? Status.CANCELLED : Status.DONE;
+		} catch (Throwable e) {
+			log.error("Job " + id + " failed", e);
+			error = e;
+			status = Status.FAILED;
+		} finally {
+			pipeline = null;
+			try {
+				checkpoint();
+			} catch (AerospikeException e) {
+				log.error("Cannot save the checkpoint of job " + id, e);
+			}
+			done.countDown();
+		}
+	}
+
+	private void add(Map<String, Long> counts){
+		if (counts == null)
+			return;
+		for (Map.Entry<String, Long> entry : counts.entrySet()){
+			String name = entry.getKey();
+			if (name.equals("elapsedMillis") || name.equals("recordsPerSecond") || entry.getValue() == null)
+				continue;
+			Long total = totals.get(name);
+			totals.put(name, (total == null) ? entry.getValue() : total + entry.getValue());
+		}
+	}
+
+	private void restore(){
+		if (checkpointKey == null)
+			return;
+		Record record = client.get(null, checkpointKey);
+		if (record == null || record.getInt("buckets") != buckets)
+			return;
+		if (Status.DONE.toString().equals(record.getString("status"))){
+			log.info("Job " + id + " was completed before, its checkpoint is cleared and it runs again");
+			client.delete(null, checkpointKey);
+			return;
+		}
+		nextBucket = record.getInt("next");
+		Map<?, ?> counts = record.getMap("counts");
+		if (counts != null){
+			for (Map.Entry<?, ?> entry : counts.entrySet())
+				totals.put(entry.getKey().toString(), ((Number) entry.getValue()).longValue());
+		}
+		Long read = totals.get("read");
+		restoredRead = (read == null) ? 0 : read;
+		log.info("Job " + id + " resumes at bucket " + nextBucket + " of " + buckets);
+	}
+
+	private void checkpoint(){
+		if (checkpointKey == null)
+			return;
+		Map<String, Long> counts;
+		synchronized (totals) {
+			counts = new HashMap<String, Long>(totals);
+		}
+		client.put(null, checkpointKey,
+				new Bin("buckets", buckets),
+				new Bin("next", nextBucket),
+				new Bin("status", status.toString()),
+				new Bin("counts", counts),
+				new Bin("updated", System.currentTimeMillis()));
+	}
+
+	/*
+	 * Called by the QueryEngine for each record read by the running bucket
+	 */
+	void recordRead(){
+		bucketRead.incrementAndGet();
+	}
+
+	/*
+	 * Sets the WritePipeline of the running bucket, for the live counts
+	 */
+	void setPipeline(WritePipeline pipeline){
+		this.pipeline = pipeline;
+	}
+
+	public String getId(){
+		return id;
+	}
+
+	public Status getStatus(){
+		return status;
+	}
+
+	/**
+	 * @return the exception that stopped a FAILED job, null otherwise
+	 */
+	public Throwable getError(){
+		return error;
+	}
+
+	/**
+	 * Stops the job within the current bucket, the job is CANCELLED once it stops
+	 */
+	public void cancel(){
+		cancelled = true;
+	}
+
+	public boolean isCancelled(){
+		return cancelled;
+	}
+
+	public boolean isDone(){
+		return done.getCount() == 0;
+	}
+
+	/**
+	 * Waits for the job to complete, be cancelled or fail
+	 * @return the final progress of the job
+	 */
+	public Map<String, Long> waitTillComplete(){
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AerospikeException(e);
+		}
+		return getProgress();
+	}
+
+	/**
+	 * Gets the live progress of the job: the counts of the completed buckets, e.g. "read" and "write", plus
+	 * the records read and written by the running bucket, "bucketsDone", "buckets", "elapsedMillis"
+	 * and "recordsPerSecond", the records read per second since the job started or resumed
+	 * @return a Map of the counts
+	 */
+	public Map<String, Long> getProgress(){
+		Map<String, Long> progress;
+		long read;
+		synchronized (totals) {
+			progress = new HashMap<String, Long>(totals);
+			read = bucketRead.get();
+			WritePipeline running = pipeline;
+			if (running != null){
+				Long write = progress.get("write");
+				progress.put("write", ((write == null) ? 0 : write) + running.getWritten());
+			}
+		}
+		Long completedRead = progress.get("read");
+		read += (completedRead == null) ? 0 : completedRead;
+		progress.put("read", read);
+		progress.put("bucketsDone", (long) nextBucket);
+		progress.put("buckets", (long) buckets);
+		long elapsed = System.currentTimeMillis() - started;
+		progress.put("elapsedMillis", elapsed);
+		if (elapsed > 0)
+			progress.put("recordsPerSecond", (read - restoredRead) * 1000 / elapsed);
+		return progress;
+	}
+
+	@Override
+	public String toString() {
+		return "Job " + id + " " + status + " " + nextBucket + "/" + buckets;
+	}
+}
@@ -0,0 +1,45 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import java.util.List;
+
+import com.aerospike.client.Bin;
+import com.aerospike.client.Key;
+/**
+ * A Key and the Bins to write to its record
+ * @author peter
+ *
+ */
+public final class KeyBins {
+	public final Key key;
+	public final Bin[] bins;
+
+	public KeyBins(Key key, Bin... bins) {
+		super();
+		this.key = key;
+		this.bins = bins;
+	}
+
+	public KeyBins(Key key, List<Bin> bins) {
+		this(key, bins.toArray(new Bin[bins.size()]));
+	}
+
+	@Override
+	public String toString() {
+		return key + " " + bins.length + " bins";
+	}
+}
@@ -15,8 +15,13 @@
  */
 package com.aerospike.helper.query;
 
+import java.util.Arrays;
+import java.util.List;
+
 import com.aerospike.client.Key;
+import com.aerospike.client.Record;
 import com.aerospike.client.Value;
+import com.aerospike.client.query.PredExp;
 /**
  * Qualifier used to query by primary key
  * @author peter
@@ -50,4 +55,20 @@ public class KeyQualifier extends Qualifier {
 		}
 
 	}
+
+	/**
+	 * Matches the record by the digest of its Key
+	 */
+	@Override
+	public boolean matches(Key key, Record record) {
+		if (key == null || record == null)
+			return false;
+		byte[] digest = hasDigest ? getDigest() : new Key(key.namespace, key.setName, getValue1()).digest;
+		return Arrays.equals(digest, key.digest);
+	}
+
+	@Override
+	protected boolean appendPredExp(List<PredExp> predExps) {
+		return false; // no predicate expression for the primary key
+	}
 }
@@ -20,9 +20,11 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.log4j.Logger;
 
+import com.aerospike.client.AerospikeException;
 import com.aerospike.client.Key;
 import com.aerospike.client.Record;
 import com.aerospike.client.query.KeyRecord;
@@ -47,6 +49,12 @@ public class KeyRecordIterator implements Iterator<KeyRecord>, Closeable {
 	private String namespace;
 	private KeyRecord singleRecord;
 	private Integer closeLock = new Integer(0);
+	private RecordBuffer prefetchBuffer;
+	private KeyRecord prefetched;
+	private boolean prefetchExhausted = false;
+	private long offset = 0;
+	private long limit = 0;
+	private long returned = 0;
 
 	public KeyRecordIterator(String namespace) {
 		super();
@@ -72,8 +80,74 @@ public class KeyRecordIterator implements Iterator<KeyRecord>, Closeable {
 
 	}
 
+	/**
+	 * Starts reading ahead of the consumer. A background reader, running on the ExecutorService, 
+	 * decodes up to <code>capacity</code> records, or <code>maxBytes</code> estimated bytes, 
+	 * into a ring buffer while the consumer processes the previous records.
+	 * <p>
+	 * Must be called before the first call to hasNext() or next().
+	 * {@link #close()} still stops the query on the server immediately.
+	 * @param executor ExecutorService to run the background reader
+	 * @param capacity the maximum number of records read ahead
+	 * @param maxBytes the maximum estimated size of the records read ahead, 0 for no limit
+	 * @return this KeyRecordIterator
+	 */
+	public KeyRecordIterator prefetch(ExecutorService executor, int capacity, long maxBytes){
+		if (this.prefetchBuffer != null)
+			return this;
+		final RecordBuffer buffer = new RecordBuffer(capacity, maxBytes, 1);
+		this.prefetchBuffer = buffer;
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (!buffer.isClosed() && fetchHasNext()){
+						KeyRecord keyRecord = fetchNext();
+						if (keyRecord != null && !buffer.put(keyRecord))
+							break;
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					if (!buffer.isClosed())
+						buffer.fail(new AerospikeException(e)); // the stream is incomplete, not at its end
+				} catch (RuntimeException e) {
+					if (!buffer.isClosed())
+						buffer.fail(e);
+				} finally {
+					buffer.producerDone();
+				}
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Skips the first <code>offset</code> records and returns at most <code>limit</code> records.
+	 * The query is closed on the server as soon as the limit is reached.
+	 * @param offset the number of records to skip
+	 * @param limit the maximum number of records returned, 0 for no limit
+	 * @return this KeyRecordIterator
+	 */
+	public KeyRecordIterator limit(long offset, long limit){
+		this.offset = offset;
+		this.limit = limit;
+		return this;
+	}
+
+	private void closeQuietly(){
+		try {
+			close();
+		} catch (IOException e) {
+			log.debug("Error closing " + this, e);
+		}
+	}
+
 	@Override
 	public void close() throws IOException {
+		if (prefetchBuffer != null){
+			prefetchExhausted = true;
+			prefetchBuffer.close();
+		}
 		synchronized (closeLock) {
 			if (recordSet != null)
 				recordSet.close();
@@ -86,6 +160,54 @@ public class KeyRecordIterator implements Iterator<KeyRecord>, Closeable {
 
 	@Override
 	public boolean hasNext() {
+		if (limit > 0 && returned >= limit)
+			return false;
+		while (offset > 0 && hasMore()){
+			nextRecord();
+			offset--;
+		}
+		return hasMore();
+	}
+
+	@Override
+	public KeyRecord next() {
+		if ((limit > 0 || offset > 0) && !hasNext())
+			return null;
+		KeyRecord keyRecord = nextRecord();
+		returned++;
+		if (limit > 0 && returned >= limit)
+			closeQuietly(); // stop the query on the server
+		return keyRecord;
+	}
+
+	private boolean hasMore() {
+		if (this.prefetchBuffer != null){
+			if (prefetched == null && !prefetchExhausted){
+				prefetched = prefetchBuffer.take();
+				if (prefetched == null)
+					prefetchExhausted = true;
+			}
+			return prefetched != null;
+		}
+		return fetchHasNext();
+	}
+
+	private KeyRecord nextRecord() {
+		if (this.prefetchBuffer != null){
+			if (!hasMore())
+				return null;
+			KeyRecord keyRecord = prefetched;
+			prefetched = null;
+			return keyRecord;
+		}
+		return fetchNext();
+	}
+
+	/**
+	 * Checks the underlying result for another record, on the consumer thread 
+	 * or on the background reader when prefetching.
+	 */
+	protected boolean fetchHasNext() {
 		if (this.recordSetIterator != null)
 			return this.recordSetIterator.hasNext();
 		else if (this.resultSetIterator != null)
@@ -96,29 +218,18 @@ public class KeyRecordIterator implements Iterator<KeyRecord>, Closeable {
 			return false;
 	}
 
+	/**
+	 * Reads and decodes the next record from the underlying result
+	 */
 	@SuppressWarnings("unchecked")
-	@Override
-	public KeyRecord next() {
+	protected KeyRecord fetchNext() {
 		KeyRecord keyRecord = null;
 
 		if (this.recordSetIterator != null) {
 			keyRecord = this.recordSetIterator.next();
 		} else if (this.resultSetIterator != null) {
 			Map<String, Object> map = (Map<String, Object>) this.resultSetIterator.next();
-			Map<String,Object> meta = (Map<String, Object>) map.get(META_DATA);
-			map.remove(META_DATA);
-			Map<String,Object> binMap = new HashMap<String, Object>(map);
-			if (log.isDebugEnabled()){
-				for (Map.Entry<String, Object> entry : map.entrySet())
-				{
-					log.debug(entry.getKey() + " = " + entry.getValue());
-				}
-			}
-			Long generation =  (Long) meta.get(GENERATION);
-			Long ttl =  (Long) meta.get(EXPIRY);
-			Record record = new Record(binMap, generation.intValue(), ttl.intValue());
-			Key key = new Key(namespace, (byte[]) meta.get(DIGEST), (String) meta.get(SET_NAME), null);
-			keyRecord = new KeyRecord(key , record);
+			keyRecord = toKeyRecord(map);
 		} else if (singleRecord != null){
 			keyRecord = singleRecord;
 			singleRecord = null;
@@ -126,11 +237,38 @@ public class KeyRecordIterator implements Iterator<KeyRecord>, Closeable {
 		return keyRecord;
 	}
 
+	/**
+	 * Decodes a result Map returned by the select_records or query_meta Lua functions
+	 * @param map the result containing the bins and the "meta_data" Map
+	 * @return the KeyRecord
+	 */
+	@SuppressWarnings("unchecked")
+	protected KeyRecord toKeyRecord(Map<String, Object> map){
+		Map<String,Object> meta = (Map<String, Object>) map.get(META_DATA);
+		map.remove(META_DATA);
+		Map<String,Object> binMap = new HashMap<String, Object>(map);
+		if (log.isDebugEnabled()){
+			for (Map.Entry<String, Object> entry : map.entrySet())
+			{
+				log.debug(entry.getKey() + " = " + entry.getValue());
+			}
+		}
+		Long generation =  (Long) meta.get(GENERATION);
+		Long ttl =  (Long) meta.get(EXPIRY);
+		Record record = new Record(binMap, generation.intValue(), ttl.intValue());
+		Key key = new Key(namespace, (byte[]) meta.get(DIGEST), (String) meta.get(SET_NAME), null);
+		return new KeyRecord(key , record);
+	}
+
 	@Override
 	public void remove() {
 
 	}
 
+	public String getNamespace() {
+		return this.namespace;
+	}
+
 	@Override
 	public String toString() {
 		return this.namespace;
@@ -0,0 +1,136 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.log4j.Logger;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.query.KeyRecord;
+/**
+ * Iterator that merges several KeyRecordIterators, typically one per node,
+ * into a single stream. Each source is read on its own thread from the supplied
+ * ExecutorService and the records are handed over through a bounded queue,
+ * so a slow source does not hold back records from the others.
+ * <p>
+ * When the sources overlap, e.g. one index query per branch of an OR, 
+ * the merged stream can skip records already returned, by digest.
+ * @author peter
+ *
+ */
+class MergedKeyRecordIterator extends KeyRecordIterator {
+	private static Logger log = Logger.getLogger(MergedKeyRecordIterator.class);
+	private List<KeyRecordIterator> sources;
+	private RecordBuffer buffer;
+	private KeyRecord nextRecord;
+	private boolean exhausted = false;
+	private HashSet<ByteBuffer> digests;
+
+	MergedKeyRecordIterator(String namespace, List<KeyRecordIterator> sources, ExecutorService executor, int capacity) {
+		this(namespace, sources, executor, capacity, false);
+	}
+
+	/**
+	 * @param distinct true to skip records with a digest already returned
+	 */
+	MergedKeyRecordIterator(String namespace, List<KeyRecordIterator> sources, ExecutorService executor, int capacity, boolean distinct) {
+		super(namespace);
+		this.sources = sources;
+		if (distinct)
+			this.digests = new HashSet<ByteBuffer>();
+		this.buffer = new RecordBuffer(capacity, sources.size());
+		for (KeyRecordIterator source : sources){
+			executor.execute(new SourceReader(source));
+		}
+	}
+
+	@Override
+	protected boolean fetchHasNext() {
+		while (nextRecord == null && !exhausted){
+			nextRecord = buffer.take();
+			if (nextRecord == null)
+				exhausted = true;
+			else if (digests != null && nextRecord.key.digest != null 
+					&& !digests.add(ByteBuffer.wrap(nextRecord.key.digest)))
+				nextRecord = null;
+		}
+		return nextRecord != null;
+	}
+
+	@Override
+	protected KeyRecord fetchNext() {
+		if (!fetchHasNext())
+			return null;
+		KeyRecord keyRecord = nextRecord;
+		nextRecord = null;
+		return keyRecord;
+	}
+
+	@Override
+	public void close() throws IOException {
+		exhausted = true;
+		buffer.close();
+		for (KeyRecordIterator source : sources){
+			closeQuietly(source);
+		}
+		super.close();
+	}
+
+	private static void closeQuietly(KeyRecordIterator source){
+		try {
+			source.close();
+		} catch (IOException e) {
+			log.debug("Error closing source " + source, e);
+		}
+	}
+
+	/**
+	 * Drains one source into the shared buffer
+	 */
+	private class SourceReader implements Runnable {
+		private KeyRecordIterator source;
+
+		SourceReader(KeyRecordIterator source){
+			this.source = source;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!buffer.isClosed() && source.hasNext()){
+					KeyRecord keyRecord = source.next();
+					if (keyRecord != null && !buffer.put(keyRecord))
+						break;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (!buffer.isClosed())
+					buffer.fail(new AerospikeException(e)); // the stream is incomplete, not at its end
+			} catch (RuntimeException e) {
+				if (!buffer.isClosed())
+					buffer.fail(e);
+			} finally {
+				closeQuietly(source);
+				buffer.producerDone();
+			}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import com.aerospike.client.Value;
+import com.aerospike.client.query.PredExp;
+/**
+ * Qualifier used to query by a list of primary keys. The records are read with batch reads, 
+ * see {@link QueryEngine#setBatchSize(int)}, and any other Qualifier is evaluated in the client.
+ * @author peter
+ *
+ */
+public class MultiKeyQualifier extends Qualifier {
+	private static final long serialVersionUID = -2418785232283254137L;
+	private static final String KEYS = "keys";
+
+	public MultiKeyQualifier(Value... keys) {
+		this(Arrays.asList(keys));
+	}
+
+	public MultiKeyQualifier(List<Value> keys) {
+		super(QueryEngine.Meta.KEY.toString(), FilterOperation.IN, Value.get(keys));
+		this.internalMap.put(KEYS, new ArrayList<Value>(keys));
+	}
+
+	@SuppressWarnings("unchecked")
+	public List<Value> getKeys(){
+		return (List<Value>) this.internalMap.get(KEYS);
+	}
+
+	public List<Key> makeKeys(String namespace, String set){
+		List<Value> values = getKeys();
+		List<Key> keys = new ArrayList<Key>(values.size());
+		for (Value value : values)
+			keys.add(new Key(namespace, set, value));
+		return keys;
+	}
+
+	@Override
+	public List<Qualifier> getBranches() {
+		List<Qualifier> branches = new ArrayList<Qualifier>();
+		for (Value value : getKeys())
+			branches.add(new KeyQualifier(value));
+		return branches;
+	}
+
+	@Override
+	public boolean matches(Key key, Record record) {
+		if (key == null || record == null)
+			return false;
+		Set<ByteBuffer> digests = new HashSet<ByteBuffer>();
+		for (Key qualifierKey : makeKeys(key.namespace, key.setName))
+			digests.add(ByteBuffer.wrap(qualifierKey.digest));
+		return digests.contains(ByteBuffer.wrap(key.digest));
+	}
+
+	@Override
+	protected String luaFieldString(String field) {
+		return "digest";
+	}
+
+	@Override
+	protected boolean appendPredExp(List<PredExp> predExps) {
+		return false; // no predicate expression for the primary key
+	}
+}
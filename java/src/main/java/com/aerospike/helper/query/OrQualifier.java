@@ -0,0 +1,111 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import com.aerospike.client.Value;
+import com.aerospike.client.query.Filter;
+import com.aerospike.client.query.PredExp;
+/**
+ * Qualifier that selects records matching any of its Qualifiers, e.g. <code>age = 25 OR age = 30</code>.
+ * <p>
+ * When every branch can use a secondary index, the QueryEngine runs one index query per branch
+ * and returns the union of the results, without duplicates. Otherwise the branches are combined
+ * with <code>or</code> in the Lua filter.
+ * @author peter
+ *
+ */
+public class OrQualifier extends Qualifier {
+	private static final long serialVersionUID = 3596155716455356281L;
+	private static final String QUALIFIERS = "qualifiers";
+
+	public OrQualifier(Qualifier... qualifiers) {
+		super(null, FilterOperation.OR, null);
+		this.internalMap.put(QUALIFIERS, qualifiers);
+	}
+
+	public Qualifier[] getQualifiers(){
+		return (Qualifier[]) this.internalMap.get(QUALIFIERS);
+	}
+
+	/**
+	 * Gets the branches of the disjunction, nested OR and IN Qualifiers are expanded.
+	 */
+	@Override
+	public List<Qualifier> getBranches() {
+		List<Qualifier> branches = new ArrayList<Qualifier>();
+		for (Qualifier qualifier : getQualifiers()){
+			List<Qualifier> nested = qualifier.getBranches();
+			if (nested == null)
+				branches.add(qualifier);
+			else
+				branches.addAll(nested);
+		}
+		return branches;
+	}
+
+	@Override
+	public boolean matches(Key key, Record record) {
+		for (Qualifier qualifier : getQualifiers()){
+			if (qualifier.matches(key, record))
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public Filter asFilter() {
+		return null;
+	}
+
+	@Override
+	protected boolean appendPredExp(List<PredExp> predExps) {
+		Qualifier[] qualifiers = getQualifiers();
+		if (qualifiers.length == 0)
+			return false;
+		for (Qualifier qualifier : qualifiers){
+			if (!qualifier.appendPredExp(predExps))
+				return false;
+		}
+		if (qualifiers.length > 1)
+			predExps.add(PredExp.or(qualifiers.length));
+		return true;
+	}
+
+	@Override
+	public String luaFilterString(List<Value> args) {
+		Qualifier[] qualifiers = getQualifiers();
+		if (qualifiers.length == 0)
+			return "false";
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < qualifiers.length; i++){
+			if (i > 0)
+				sb.append(" or ");
+			sb.append("(").append(qualifiers[i].luaFilterString(args)).append(")");
+		}
+		return sb.append(")").toString();
+	}
+
+	@Override
+	public String toString() {
+		return "OR" + Arrays.toString(getQualifiers());
+	}
+}
@@ -31,15 +31,23 @@
 package com.aerospike.helper.query;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
 import com.aerospike.client.Value;
 import com.aerospike.client.command.ParticleType;
 import com.aerospike.client.query.Filter;
 import com.aerospike.client.query.IndexCollectionType;
+import com.aerospike.client.query.PredExp;
+import com.aerospike.client.query.RegexFlag;
 /**
  * Generic Bin qualifier. It acts as a filter to exclude records that do not met this criteria.
  * The operations supported are:
@@ -53,6 +61,7 @@ import com.aerospike.client.query.IndexCollectionType;
  * <li>BETWEEN - Between two value (inclusive)</li>
  * <li>START_WITH - A string that starts with</li>
  * <li>ENDS_WITH - A string that ends with</li>
+ * <li>IN - Equal to one of the values in a list</li>
  * </ul><p>
  * @author Peter Milne
  *
@@ -60,13 +69,14 @@ import com.aerospike.client.query.IndexCollectionType;
 public class Qualifier implements Map<String, Object>, Serializable{
 	private static final long serialVersionUID = -2689196529952712849L;
 	private static final String FIELD = "field";
-	private static final String VALUE3 = "value2";
+	private static final String VALUE3 = "value3";
 	private static final String VALUE2 = "value2";
 	private static final String VALUE1 = "value1";
 	private static final String OPERATION = "operation";
+	private static final String ITERATE_VAR = "v";
 	protected Map<String, Object> internalMap;
 	public enum FilterOperation {
-		EQ, GT, GTEQ, LT, LTEQ, NOTEQ, BETWEEN, START_WITH, ENDS_WITH, 
+		EQ, GT, GTEQ, LT, LTEQ, NOTEQ, BETWEEN, START_WITH, ENDS_WITH, IN, OR,
 		LIST_CONTAINS, LIST_BETWEEN, 
 		MAP_KEYS_CONTAINS, MAP_VALUES_CONTAINS, MAP_KEYS_BETWEEN, MAP_VALUES_BETWEEN,
 		GEO_WITHIN_REGION, GEO_WITHIN_RADIUS, GEO_CONTAINS,
@@ -203,10 +213,27 @@ public class Qualifier implements Map<String, Object>, Serializable{
 				getValue1().toString() /*region*/);
 	}
 
+	/**
+	 * Builds the Lua filter expression with the values inlined as Lua literals
+	 * @return the Lua expression
+	 */
 	public String luaFilterString(){
-		String value1 = luaValueString(getValue1());
-		String field = luaFieldString(getField());
+		return luaFilterString(null);
+	}
+
+	/**
+	 * Builds the Lua filter expression as a template. Each value is appended to <code>args</code>
+	 * and the expression refers to it by its slot, e.g. <code>args[1]</code>, so queries that only differ 
+	 * by their values share the same expression, compiled once on each node.
+	 * @param args the list the values are added to, or null to inline the values as Lua literals
+	 * @return the Lua expression
+	 */
+	public String luaFilterString(List<Value> args){
 		FilterOperation op = getOperation();
+		String field = luaFieldString(getField());
+		if (op == FilterOperation.IN)
+			return luaInString(field, args);
+		String value1 = luaValue(getValue1(), args);
 		switch (op) {
 		case EQ:
 			return String.format("%s == %s", field,  value1);
@@ -227,17 +254,17 @@ public class Qualifier implements Map<String, Object>, Serializable{
 		case LTEQ:
 			return String.format("%s <= %s", field, value1);
 		case BETWEEN:
-			String value2 = luaValueString(getValue2());
+			String value2 = luaValue(getValue2(), args);
 			String fieldString = field; 
 			return String.format("%s >= %s and %s <= %s  ", fieldString, value1, field, value2);
 		case LIST_BETWEEN:
-			value2 = luaValueString(getValue2());
+			value2 = luaValue(getValue2(), args);
 			return String.format("listRange(%s, %s, %s)", field,  value1, value2);
 		case MAP_KEYS_BETWEEN:
-			value2 = luaValueString(getValue2());
+			value2 = luaValue(getValue2(), args);
 			return String.format("rangeKey(%s, %s, %s)", field,  value1, value2);
 		case MAP_VALUES_BETWEEN:
-			value2 = luaValueString(getValue2());
+			value2 = luaValue(getValue2(), args);
 			return String.format("rangeValue(%s, %s, %s)", field,  value1, value2);
 		case START_WITH:
 			return String.format("string.sub(%s,1,string.len(%s))==%s", field, value1, value1);			
@@ -276,10 +303,408 @@ public class Qualifier implements Map<String, Object>, Serializable{
 		return "";
 	}
 
+	/**
+	 * Evaluates this Qualifier in Java, with the same result as the Lua filter.
+	 * @param record the record
+	 * @return true if the record matches
+	 */
+	public boolean matches(Record record){
+		return matches(null, record);
+	}
+
+	/**
+	 * Evaluates this Qualifier in Java, with the same result as the Lua filter.
+	 * @param key the Key of the record, used by a KeyQualifier, may be null
+	 * @param record the record
+	 * @return true if the record matches
+	 */
+	public boolean matches(Key key, Record record){
+		if (record == null)
+			return false;
+		Object value = fieldValue(key, record);
+		FilterOperation op = getOperation();
+		switch (op) {
+		case EQ:
+			return valueEquals(value, getValue1());
+		case NOTEQ:
+			return !valueEquals(value, getValue1());
+		case GT:
+		case GTEQ:
+		case LT:
+		case LTEQ:
+			int result = compare(value, getValue1());
+			if (result == NOT_COMPARABLE)
+				return false;
+			if (op == FilterOperation.GT)
+				return result > 0;
+			if (op == FilterOperation.GTEQ)
+				return result >= 0;
+			if (op == FilterOperation.LT)
+				return result < 0;
+			return result <= 0;
+		case BETWEEN:
+			return between(value);
+		case START_WITH:
+			return (value instanceof String) && ((String) value).startsWith(getValue1().toString());
+		case ENDS_WITH:
+			return (value instanceof String) && ((String) value).endsWith(getValue1().toString());
+		case IN:
+			for (Qualifier branch : getBranches()){
+				if (branch.valueEquals(value, branch.getValue1()))
+					return true;
+			}
+			return false;
+		case LIST_CONTAINS:
+		case MAP_KEYS_CONTAINS:
+		case MAP_VALUES_CONTAINS:
+			for (Object element : elements(value, op)){
+				if (valueEquals(element, getValue1()))
+					return true;
+			}
+			return false;
+		case LIST_BETWEEN:
+		case MAP_KEYS_BETWEEN:
+		case MAP_VALUES_BETWEEN:
+			for (Object element : elements(value, op)){
+				if (between(element))
+					return true;
+			}
+			return false;
+		case GEO_WITHIN_REGION:
+		case GEO_WITHIN_RADIUS:
+		case GEO_CONTAINS:
+			return geoMatches(value);
+		case GEO_LIST_WITHIN_REGION:
+		case GEO_LIST_WITHIN_RADIUS:
+		case GEO_LIST_CONTAINS:
+		case GEO_MAP_KEYS_WITHIN_REGION:
+		case GEO_MAP_KEYS_WITHIN_RADIUS:
+		case GEO_MAP_KEYS_CONTAINS:
+		case GEO_MAP_VALUES_WITHIN_REGION:
+		case GEO_MAP_VALUES_WITHIN_RADIUS:
+		case GEO_MAP_VALUES_CONTAINS:
+			for (Object element : elements(value, op)){
+				if (geoMatches(element))
+					return true;
+			}
+			return false;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Gets the value the Qualifier applies to, a Bin of the record by default
+	 */
+	protected Object fieldValue(Key key, Record record){
+		return (record.bins == null) ? null : record.bins.get(getField());
+	}
+
+	private static final int NOT_COMPARABLE = Integer.MIN_VALUE;
+
+	private boolean between(Object value){
+		int low = compare(value, getValue1());
+		int high = compare(value, getValue2());
+		return low != NOT_COMPARABLE && high != NOT_COMPARABLE && low >= 0 && high <= 0;
+	}
+
+	private boolean valueEquals(Object value, Value other){
+		if (value == null || other == null)
+			return false;
+		Object otherValue = other.getObject();
+		if (value instanceof Number && otherValue instanceof Number)
+			return compareNumbers((Number) value, (Number) otherValue) == 0;
+		if (value instanceof byte[] && otherValue instanceof byte[])
+			return Arrays.equals((byte[]) value, (byte[]) otherValue);
+		return value.equals(otherValue);
+	}
+
+	/*
+	 * Compares numbers with numbers and strings with strings, as Lua does, 
+	 * anything else is NOT_COMPARABLE
+	 */
+	private static int compare(Object value, Value other){
+		if (value == null || other == null)
+			return NOT_COMPARABLE;
+		Object otherValue = other.getObject();
+		if (value instanceof Number && otherValue instanceof Number)
+			return compareNumbers((Number) value, (Number) otherValue);
+		if (value instanceof String && otherValue instanceof String){
+			int result = ((String) value).compareTo((String) otherValue);
+			return (result < 0) ? -1 : (result > 0 ? 1 : 0);
+		}
+		return NOT_COMPARABLE;
+	}
+
+	private static int compareNumbers(Number a, Number b){
+		if (isIntegral(a) && isIntegral(b)){
+			long x = a.longValue();
+			long y = b.longValue();
+			return (x < y) ? -1 : ((x == y) ? 0 : 1);
+		}
+		return Double.compare(a.doubleValue(), b.doubleValue());
+	}
+
+	private static boolean isIntegral(Number number){
+		return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+	}
+
+	private static Collection<?> elements(Object value, FilterOperation op){
+		if (value instanceof List)
+			return (List<?>) value;
+		if (value instanceof Map){
+			switch (op) {
+			case MAP_KEYS_CONTAINS:
+			case MAP_KEYS_BETWEEN:
+			case GEO_MAP_KEYS_WITHIN_REGION:
+			case GEO_MAP_KEYS_WITHIN_RADIUS:
+			case GEO_MAP_KEYS_CONTAINS:
+				return ((Map<?, ?>) value).keySet();
+			default:
+				return ((Map<?, ?>) value).values();
+			}
+		}
+		return Collections.emptyList();
+	}
+
+	private boolean geoMatches(Object value){
+		GeoJSON shape = GeoJSON.parse(value);
+		if (shape == null)
+			return false;
+		switch (getOperation()) {
+		case GEO_WITHIN_RADIUS:
+		case GEO_LIST_WITHIN_RADIUS:
+		case GEO_MAP_KEYS_WITHIN_RADIUS:
+		case GEO_MAP_VALUES_WITHIN_RADIUS:
+			return shape.withinRadius(((Number) getValue1().getObject()).doubleValue(), 
+					((Number) getValue2().getObject()).doubleValue(), 
+					((Number) getValue3().getObject()).doubleValue());
+		case GEO_CONTAINS:
+		case GEO_LIST_CONTAINS:
+		case GEO_MAP_KEYS_CONTAINS:
+		case GEO_MAP_VALUES_CONTAINS:
+			GeoJSON point = GeoJSON.parse(getValue1());
+			return point != null && point.within(shape);
+		default:
+			return shape.within(GeoJSON.parse(getValue1()));
+		}
+	}
+
+	/**
+	 * Builds the native predicate expression of this Qualifier, evaluated by the server without Lua.
+	 * Operations on integer and string values have a native equivalent, other values 
+	 * and operations return null and are evaluated by the Lua filter.
+	 * @return the predicate expression in postfix order, or null if there is no native equivalent
+	 */
+	public PredExp[] toPredExp(){
+		List<PredExp> predExps = new ArrayList<PredExp>();
+		if (!appendPredExp(predExps))
+			return null;
+		return predExps.toArray(new PredExp[predExps.size()]);
+	}
+
+	/**
+	 * Appends the predicate expression of this Qualifier
+	 * @param predExps the predicate expressions, in postfix order
+	 * @return false if there is no native equivalent
+	 */
+	protected boolean appendPredExp(List<PredExp> predExps){
+		FilterOperation op = getOperation();
+		String field = getField();
+		switch (op) {
+		case EQ:
+		case NOTEQ:
+		case GT:
+		case GTEQ:
+		case LT:
+		case LTEQ:
+			/*
+			 * NOTEQ is NOT(EQ), so records without the bin match, as with the Lua filter
+			 */
+			if (isInteger(getValue1())){
+				predExps.add(PredExp.integerBin(field));
+				predExps.add(PredExp.integerValue(getValue1().toLong()));
+				predExps.add(integerCompare(op));
+			} else if (isString(getValue1()) && (op == FilterOperation.EQ || op == FilterOperation.NOTEQ)){
+				predExps.add(PredExp.stringBin(field));
+				predExps.add(PredExp.stringValue(getValue1().toString()));
+				predExps.add(PredExp.stringEqual());
+			} else {
+				return false;
+			}
+			if (op == FilterOperation.NOTEQ)
+				predExps.add(PredExp.not());
+			return true;
+		case BETWEEN:
+			if (!isInteger(getValue1()) || !isInteger(getValue2()))
+				return false;
+			predExps.add(PredExp.integerBin(field));
+			predExps.add(PredExp.integerValue(getValue1().toLong()));
+			predExps.add(PredExp.integerGreaterEq());
+			predExps.add(PredExp.integerBin(field));
+			predExps.add(PredExp.integerValue(getValue2().toLong()));
+			predExps.add(PredExp.integerLessEq());
+			predExps.add(PredExp.and(2));
+			return true;
+		case START_WITH:
+			if (!isString(getValue1()))
+				return false;
+			predExps.add(PredExp.stringBin(field));
+			predExps.add(PredExp.stringValue("^" + escapeRegex(getValue1().toString())));
+			predExps.add(PredExp.stringRegex(RegexFlag.EXTENDED));
+			return true;
+		case ENDS_WITH:
+			if (!isString(getValue1()))
+				return false;
+			predExps.add(PredExp.stringBin(field));
+			predExps.add(PredExp.stringValue(escapeRegex(getValue1().toString()) + "$"));
+			predExps.add(PredExp.stringRegex(RegexFlag.EXTENDED));
+			return true;
+		case LIST_CONTAINS:
+		case MAP_KEYS_CONTAINS:
+		case MAP_VALUES_CONTAINS:
+			if (!appendVarEqual(predExps, getValue1()))
+				return false;
+			appendIterateOr(predExps, op, field);
+			return true;
+		case LIST_BETWEEN:
+		case MAP_KEYS_BETWEEN:
+		case MAP_VALUES_BETWEEN:
+			if (!isInteger(getValue1()) || !isInteger(getValue2()))
+				return false;
+			predExps.add(PredExp.integerVar(ITERATE_VAR));
+			predExps.add(PredExp.integerValue(getValue1().toLong()));
+			predExps.add(PredExp.integerGreaterEq());
+			predExps.add(PredExp.integerVar(ITERATE_VAR));
+			predExps.add(PredExp.integerValue(getValue2().toLong()));
+			predExps.add(PredExp.integerLessEq());
+			predExps.add(PredExp.and(2));
+			appendIterateOr(predExps, op, field);
+			return true;
+		case IN:
+			List<Qualifier> branches = getBranches();
+			for (Qualifier branch : branches){
+				if (!branch.appendPredExp(predExps))
+					return false;
+			}
+			if (branches.size() != 1)
+				predExps.add(PredExp.or(branches.size()));
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static boolean appendVarEqual(List<PredExp> predExps, Value value){
+		if (isInteger(value)){
+			predExps.add(PredExp.integerVar(ITERATE_VAR));
+			predExps.add(PredExp.integerValue(value.toLong()));
+			predExps.add(PredExp.integerEqual());
+			return true;
+		}
+		if (isString(value)){
+			predExps.add(PredExp.stringVar(ITERATE_VAR));
+			predExps.add(PredExp.stringValue(value.toString()));
+			predExps.add(PredExp.stringEqual());
+			return true;
+		}
+		return false;
+	}
+
+	private static void appendIterateOr(List<PredExp> predExps, FilterOperation op, String field){
+		switch (op) {
+		case LIST_CONTAINS:
+		case LIST_BETWEEN:
+			predExps.add(PredExp.listBin(field));
+			predExps.add(PredExp.listIterateOr(ITERATE_VAR));
+			break;
+		case MAP_KEYS_CONTAINS:
+		case MAP_KEYS_BETWEEN:
+			predExps.add(PredExp.mapBin(field));
+			predExps.add(PredExp.mapKeyIterateOr(ITERATE_VAR));
+			break;
+		default:
+			predExps.add(PredExp.mapBin(field));
+			predExps.add(PredExp.mapValIterateOr(ITERATE_VAR));
+			break;
+		}
+	}
+
+	private static PredExp integerCompare(FilterOperation op){
+		switch (op) {
+		case GT:
+			return PredExp.integerGreater();
+		case GTEQ:
+			return PredExp.integerGreaterEq();
+		case LT:
+			return PredExp.integerLess();
+		case LTEQ:
+			return PredExp.integerLessEq();
+		default:
+			return PredExp.integerEqual();
+		}
+	}
+
+	private static boolean isInteger(Value value){
+		return value != null && value.getType() == ParticleType.INTEGER;
+	}
+
+	private static boolean isString(Value value){
+		return value != null && value.getType() == ParticleType.STRING;
+	}
+
+	private static String escapeRegex(String value){
+		StringBuilder sb = new StringBuilder();
+		for (char c : value.toCharArray()){
+			if ("\\.[]{}()*+?^$|".indexOf(c) >= 0)
+				sb.append('\\');
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	private String luaInString(String field, List<Value> args){
+		List<?> values = (List<?>) getValue1().getObject();
+		if (values.isEmpty())
+			return "false";
+		StringBuilder sb = new StringBuilder("(");
+		for (Object value : values){
+			if (sb.length() > 1)
+				sb.append(" or ");
+			sb.append(String.format("%s == %s", field, luaValue(Value.get(value), args)));
+		}
+		return sb.append(")").toString();
+	}
+
+	/**
+	 * Expands this Qualifier into the Qualifiers of a disjunction, the EQ Qualifiers of the values of an IN.
+	 * @return the branches, or null if this Qualifier is not a disjunction
+	 */
+	public List<Qualifier> getBranches(){
+		if (getOperation() != FilterOperation.IN)
+			return null;
+		List<Qualifier> branches = new ArrayList<Qualifier>();
+		for (Object value : (List<?>) getValue1().getObject())
+			branches.add(new Qualifier(getField(), FilterOperation.EQ, Value.get(value)));
+		return branches;
+	}
+
 	protected String luaFieldString(String field){
 		return String.format("rec['%s']", field);
 	}
 
+	/**
+	 * Gets the Lua value used in the filter expression, either a literal or a reference to an argument slot
+	 */
+	protected String luaValue(Value value, List<Value> args){
+		if (args == null)
+			return luaValueString(value);
+		if (value == null)
+			return "nil";
+		args.add(value);
+		return String.format("args[%d]", args.size());
+	}
+
 	protected String luaValueString(Value value){
 		String res = null;
 		int type = value.getType();
@@ -17,14 +17,35 @@ package com.aerospike.helper.query;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 
@@ -34,15 +55,20 @@ import com.aerospike.client.Bin;
 import com.aerospike.client.Info;
 import com.aerospike.client.Key;
 import com.aerospike.client.Language;
+import com.aerospike.client.Operation;
 import com.aerospike.client.Record;
+import com.aerospike.client.ResultCode;
 import com.aerospike.client.Value;
 import com.aerospike.client.cluster.Node;
+import com.aerospike.client.policy.GenerationPolicy;
 import com.aerospike.client.policy.InfoPolicy;
+import com.aerospike.client.policy.Policy;
 import com.aerospike.client.policy.RecordExistsAction;
 import com.aerospike.client.policy.WritePolicy;
 import com.aerospike.client.query.Filter;
 import com.aerospike.client.query.IndexCollectionType;
 import com.aerospike.client.query.KeyRecord;
+import com.aerospike.client.query.PredExp;
 import com.aerospike.client.query.RecordSet;
 import com.aerospike.client.query.ResultSet;
 import com.aerospike.client.query.Statement;
@@ -78,17 +104,96 @@ public class QueryEngine implements Closeable{
 
 	protected static final Set indexableSet = new HashSet(Arrays.asList(indexableOperations));
 
+	public static final int DEFAULT_MERGE_QUEUE_CAPACITY = 5000;
+	public static final int DEFAULT_MAX_INTERSECTION_SIZE = 100000;
+	public static final double CLIENT_FILTER_SELECTIVITY = 0.5;
+	public static final int DEFAULT_CONFLICT_RETRIES = 3;
+	public static final long DEFAULT_CONFLICT_BACKOFF = 10;
+	public static final long DEFAULT_INDEX_REFRESH_MILLIS = 10000;
+	public static final long DEFAULT_NAMESPACE_REFRESH_MILLIS = 5000;
+	public static final long DEFAULT_NAMESPACE_REFRESH_TIMEOUT = 2000;
+
 	protected static Logger log = Logger.getLogger(QueryEngine.class);
 
 	protected AerospikeClient client;
-	protected Map<String, Set<Index>> indexCache;
+	protected final AtomicReference<IndexCache> indexCache = new AtomicReference<IndexCache>(IndexCache.EMPTY);
+	private ScheduledExecutorService refresher;
+	private ScheduledFuture<?> indexRefresh;
+	private ScheduledFuture<?> namespaceRefresh;
+	private final Object indexRefreshLock = new Object();
+	protected long indexRefreshMillis = DEFAULT_INDEX_REFRESH_MILLIS;
 	public WritePolicy updatePolicy;
 	public WritePolicy insertPolicy;
 	public InfoPolicy infoPolicy;
 
 	protected Map<String, Module> moduleCache;
 
-	protected TreeMap<String, Namespace> namespaceCache;
+	protected final AtomicReference<SortedMap<String, Namespace>> namespaceCache = 
+			new AtomicReference<SortedMap<String, Namespace>>(Collections.unmodifiableSortedMap(new TreeMap<String, Namespace>()));
+	private final Map<String, Map<String, String>> nodeNamespaceInfo = new ConcurrentHashMap<String, Map<String, String>>();
+	private final Object namespaceRefreshLock = new Object();
+	protected final AtomicReference<Map<String, WriteThrottle.Health>> namespaceHealth = 
+			new AtomicReference<Map<String, WriteThrottle.Health>>(Collections.<String, WriteThrottle.Health>emptyMap());
+	private final WriteThrottle.HealthMonitor healthMonitor = new WriteThrottle.HealthMonitor() {
+		@Override
+		public WriteThrottle.Health getHealth(String namespace) {
+			return getNamespaceHealth(namespace);
+		}
+	};
+	protected long namespaceRefreshMillis = DEFAULT_NAMESPACE_REFRESH_MILLIS;
+	protected long namespaceRefreshTimeout = DEFAULT_NAMESPACE_REFRESH_TIMEOUT;
+
+	protected ExecutorService executor;
+	private boolean ownsExecutor = false;
+	protected int mergeQueueCapacity = DEFAULT_MERGE_QUEUE_CAPACITY;
+	protected int prefetchCapacity = 0;
+	protected long prefetchMaxBytes = 0;
+	protected int maxIntersectionSize = DEFAULT_MAX_INTERSECTION_SIZE;
+	protected int batchSize = BatchKeyRecordIterator.DEFAULT_CHUNK_SIZE;
+	protected boolean usePredExp = true;
+	protected volatile boolean predExpSupported = true;
+	protected FilterMode filterMode = FilterMode.AUTO;
+	protected int writeWindow = WritePipeline.DEFAULT_WINDOW;
+	protected long throttleLatency = 0;
+	protected volatile HedgedReader hedgedReader;
+	protected DeleteStrategy deleteStrategy = DeleteStrategy.AUTO;
+	protected int conflictRetries = DEFAULT_CONFLICT_RETRIES;
+	protected long conflictBackoff = DEFAULT_CONFLICT_BACKOFF;
+	private final Random random = new Random();
+	protected int jobBuckets = Job.DEFAULT_BUCKETS;
+	protected String checkpointSet = Job.DEFAULT_CHECKPOINT_SET;
+
+	/**
+	 * Where the Qualifiers without an index or a predicate expression are evaluated
+	 */
+	public enum FilterMode
+	{
+		/** chosen by the estimated selectivity of the Qualifiers */
+		AUTO,
+		/** by the Lua filter on the server */
+		LUA,
+		/** by the client, on the records returned by a plain query */
+		CLIENT
+	}
+
+	/**
+	 * How the records matching a delete are deleted
+	 */
+	public enum DeleteStrategy
+	{
+		/** the scan UDF without Qualifiers, PIPELINE with Qualifiers */
+		AUTO,
+		/** 
+		 * truncates the set without Qualifiers, fails if the server does not support it (before 3.12). 
+		 * Truncate is not a delete of each record: the records are dropped from the index at once, 
+		 * and with persistence they can come back when a node restarts before they are overwritten. 
+		 */
+		TRUNCATE,
+		/** a background query running the delete UDF on each node */
+		SERVER,
+		/** the records are selected and deleted by the client, several deletes in flight */
+		PIPELINE
+	}
 
 	public enum Meta
 	{	
@@ -150,7 +255,7 @@ public class QueryEngine implements Closeable{
 	 * @param namespace Namespace to storing the data
 	 * @param set Set storing the data
 	 * @param filter Aerospike Filter to be used
-	 * @param sortMap <STRONG>NOT IMPLEMENTED</STRONG>
+	 * @param sortMap A Map of Bin name to "ASC" or "DESC", iterated in order of precedence, e.g. a LinkedHashMap
 	 * @param qualifiers Zero or more Qualifiers for the update query
 	 * @return A KeyRecordIterator to iterate over the results
 	 */
@@ -164,30 +269,80 @@ public class QueryEngine implements Closeable{
 
 	}
 	/**
-	 * Select records filtered by Qualifiers
+	 * Select records filtered by Qualifiers, ordered by the bins in the sortMap
 	 * @param stmt A Statement object containing Namespace, Set and the Bins to be returned.
-	 * @param sortMap <STRONG>NOT IMPLEMENTED</STRONG>
+	 * @param sortMap A Map of Bin name to "ASC" or "DESC", iterated in order of precedence, e.g. a LinkedHashMap
 	 * @param qualifiers Zero or more Qualifiers for the update query
 	 * @return A KeyRecordIterator to iterate over the results
 	 */
 	public KeyRecordIterator select(Statement stmt, Map<String, String> sortMap, Qualifier... qualifiers){
-		KeyRecordIterator results = null;
+		return select(stmt, sortMap, 0, qualifiers);
+	}
+	/**
+	 * Select the first records, filtered by Qualifiers and ordered by the bins in the sortMap.
+	 * @param stmt A Statement object containing Namespace, Set and the Bins to be returned.
+	 * @param sortMap A Map of Bin name to "ASC" or "DESC", iterated in order of precedence, e.g. a LinkedHashMap. May be null.
+	 * @param limit The maximum number of records returned, 0 returns all the records
+	 * @param qualifiers Zero or more Qualifiers for the update query
+	 * @return A KeyRecordIterator to iterate over the results
+	 */
+	public KeyRecordIterator select(Statement stmt, Map<String, String> sortMap, long limit, Qualifier... qualifiers){
+		return select(stmt, sortMap, 0, limit, qualifiers);
+	}
+	/**
+	 * Select a page of records filtered by Qualifiers
+	 * @param stmt A Statement object containing Namespace, Set and the Bins to be returned.
+	 * @param offset The number of records to skip
+	 * @param limit The maximum number of records returned, 0 returns all the records
+	 * @param qualifiers Zero or more Qualifiers for the update query
+	 * @return A KeyRecordIterator to iterate over the results
+	 */
+	public KeyRecordIterator select(Statement stmt, long offset, long limit, Qualifier... qualifiers){
+		return select(stmt, null, offset, limit, qualifiers);
+	}
+	/**
+	 * Select a page of records, filtered by Qualifiers and ordered by the bins in the sortMap.
+	 * <p>
+	 * The limit is applied by the client, which skips the offset and closes the query as soon as the limit 
+	 * is reached. When the select_records Lua function runs, for a sortMap or a Lua filter, each node also 
+	 * returns at most <code>offset + limit</code> records, its first records if there is a sortMap. 
+	 * A limit alone does not run the Lua function.
+	 * A sortMap without a limit is logged as a warning, as every record is then read and sorted in the client.
+	 * @param stmt A Statement object containing Namespace, Set and the Bins to be returned.
+	 * @param sortMap A Map of Bin name to "ASC" or "DESC", iterated in order of precedence, e.g. a LinkedHashMap. May be null.
+	 * @param offset The number of records to skip
+	 * @param limit The maximum number of records returned, 0 returns all the records
+	 * @param qualifiers Zero or more Qualifiers for the update query
+	 * @return A KeyRecordIterator to iterate over the results
+	 */
+	public KeyRecordIterator select(Statement stmt, Map<String, String> sortMap, long offset, long limit, Qualifier... qualifiers){
+		boolean sorted = (sortMap != null && !sortMap.isEmpty());
+		if (!sorted && limit <= 0 && offset <= 0)
+			return select(stmt, qualifiers);
+		if (qualifiers == null || qualifiers.length == 0){
+			if (!sorted)
+				return select(stmt, false, null, qualifiers).limit(offset, limit);
+			qualifiers = new Qualifier[0];
+		} else if (findKey(qualifiers) >= 0 || findMultiKey(qualifiers) >= 0){
+			// primary keys are read by the client, with the other qualifiers evaluated on the records
+			KeyRecordIterator results = sorted ? sortInClient(stmt, sortMap, qualifiers) : select(stmt, false, null, qualifiers);
+			return results.limit(offset, limit);
+		}
+		if (sorted && limit <= 0){
+			log.warn("Sorted select on " + stmt.getNamespace() + " without a limit, every record is sorted in the client");
+			return sortInClient(stmt, sortMap, qualifiers).limit(offset, limit);
+		}
 
-		if (qualifiers != null && qualifiers.length > 0) {
-			Map<String, Object> originArgs = new HashMap<String, Object>();
-			originArgs.put("includeAllFields", 1);
-			String filterFuncStr = buildFilterFunction(qualifiers);
-			originArgs.put("filterFuncStr", filterFuncStr);
-			String sortFuncStr = buildSortFunction(sortMap);
-			originArgs.put("sortFuncStr", sortFuncStr);
-			stmt.setAggregateFunction(this.getClass().getClassLoader(), AS_UTILITY_PATH, QUERY_MODULE, "select_records", Value.get(originArgs));
-			ResultSet resultSet = this.client.queryAggregate(null, stmt);
-			results = new KeyRecordIterator(stmt.getNamespace(), resultSet);
-		} else {
-			RecordSet recordSet = this.client.query(null, stmt);
-			results = new KeyRecordIterator(stmt.getNamespace(), recordSet);
-		} 
-		return results;
+		Map<String, Object> originArgs = sorted ? buildSortArguments(sortMap) : new HashMap<String, Object>();
+		originArgs.put("limit", (limit > 0) ? offset + limit : 0);
+		List<Qualifier> clientFilters = new ArrayList<Qualifier>();
+		boolean aggregate = prepareAggregate(stmt, "select_records", originArgs, null, qualifiers, clientFilters);
+		KeyRecordIterator results = null;
+		if (sorted)
+			results = new SortedKeyRecordIterator(stmt.getNamespace(), this.client.queryAggregate(null, stmt), new RecordComparator(sortMap));
+		else 
+			results = clientFilter(stmt, prefetch(queryNode(stmt, aggregate, null)), clientFilters);
+		return results.limit(offset, limit);
 	}
 
 	/**
@@ -227,31 +382,21 @@ public class QueryEngine implements Closeable{
 	 * @return A KeyRecordIterator to iterate over the results
 	 */
 	public KeyRecordIterator select(Statement stmt, boolean metaOnly, Node node, Qualifier... qualifiers){
-		KeyRecordIterator results = null;
 		/*
 		 * no filters
 		 */
 		if (qualifiers == null || qualifiers.length == 0)  {
-			RecordSet recordSet = null;
-			if (node != null)
-				recordSet = this.client.queryNode(null, stmt, node);
-			else
-				recordSet = this.client.query(null, stmt);
-			results = new KeyRecordIterator(stmt.getNamespace(), recordSet);
-			return results;
+			return prefetch(queryNode(stmt, false, node));
 		}
 		/*
 		 * singleton using primary key
 		 */
 		if (qualifiers != null && qualifiers.length == 1 && qualifiers[0] instanceof KeyQualifier)  {
+			KeyRecordIterator results = null;
 			KeyQualifier kq = (KeyQualifier)qualifiers[0];
 			Key key = kq.makeKey(stmt.getNamespace(), stmt.getSetName());
 			//System.out.println(key);
-			Record record = null;
-			if (metaOnly)
-				record = this.client.getHeader(null, key);
-			else
-				record = this.client.get(null, key, stmt.getBinNames());
+			Record record = get(key, metaOnly, stmt.getBinNames());
 			if (record == null){
 				results = new KeyRecordIterator(stmt.getNamespace());
 			} else {
@@ -261,245 +406,1420 @@ public class QueryEngine implements Closeable{
 			return results;
 		}
 		/*
-		 *  query with filters
+		 * primary key with other qualifiers evaluated on the record
 		 */
-		Map<String, Object> originArgs = new HashMap<String, Object>();
-		originArgs.put("includeAllFields", 1);
-
-		for (int i = 0; i < qualifiers.length; i++){
-			Qualifier qualifier = qualifiers[i];
-			if (isIndexedBin(qualifier)){
-				Filter filter = qualifier.asFilter();
-				if (filter != null){
-					stmt.setFilters(filter);
-					qualifiers[i] = null;
-					break;
-				}
-			}
+		int keyIndex = findKey(qualifiers);
+		if (keyIndex >= 0){
+			KeyRecord keyRecord = getMatching(stmt, keyIndex, qualifiers);
+			if (keyRecord == null)
+				return new KeyRecordIterator(stmt.getNamespace());
+			return new KeyRecordIterator(stmt.getNamespace(), project(keyRecord, metaOnly ? new String[0] : stmt.getBinNames()));
 		}
-
-		String filterFuncStr = buildFilterFunction(qualifiers);
-		originArgs.put("filterFuncStr", filterFuncStr);
-		//System.out.println(originArgs);
-		
-		if (metaOnly)
-			stmt.setAggregateFunction(this.getClass().getClassLoader(), AS_UTILITY_PATH, QUERY_MODULE, "query_meta", Value.get(originArgs));
-		else
-			stmt.setAggregateFunction(this.getClass().getClassLoader(), AS_UTILITY_PATH, QUERY_MODULE, "select_records", Value.get(originArgs));
-		ResultSet resultSet = null;
-
-		if (node != null) {
-			resultSet = this.client.queryAggregateNode(null, stmt, node);
-		} else {
-			resultSet = this.client.queryAggregate(null, stmt);
+		/*
+		 * list of primary keys using batch reads
+		 */
+		int multiKey = findMultiKey(qualifiers);
+		if (multiKey >= 0)
+			return selectKeys(stmt, metaOnly, multiKey, qualifiers);
+		/*
+		 * disjunction using a union of index queries
+		 */
+		int union = chooseUnionQualifier(stmt, qualifiers);
+		if (union >= 0)
+			return selectUnion(stmt, metaOnly, node, union, qualifiers);
+		/*
+		 * conjunction of several indexed qualifiers using an intersection of index queries
+		 */
+		if (node == null){
+			KeyRecordIterator intersection = selectIntersection(stmt, metaOnly, qualifiers);
+			if (intersection != null)
+				return intersection;
 		}
-		results = new KeyRecordIterator(stmt.getNamespace(), resultSet);
-		return results;
+		/*
+		 *  query with filters
+		 */
+		List<Qualifier> clientFilters = new ArrayList<Qualifier>();
+		boolean aggregate = prepareAggregate(stmt, metaOnly, qualifiers, clientFilters);
+		return prefetch(clientFilter(stmt, queryNode(stmt, aggregate, node), clientFilters));
 	}
 
-	protected boolean isIndexedBin(Qualifier qualifier){
-		String field = qualifier.getField();
-		FilterOperation operation = qualifier.getOperation();
-		if ( !indexableSet.contains(operation) )
-			return false;
-		
-		if (!this.indexCache.containsKey(field))
-			return false;
-		
-		Filter filter = qualifier.asFilter();
-		Set<Index> indexSet = this.indexCache.get(field);
-		IndexCollectionType collectionType = filter.getCollectionType();
-		for (Index index : indexSet){
-			if (index.getCollectionType() == collectionType)
-				return true;
+	private int findKey(Qualifier[] qualifiers){
+		for (int i = 0; i < qualifiers.length; i++){
+			if (qualifiers[i] instanceof KeyQualifier)
+				return i;
 		}
-		return false;
+		return -1;
 	}
 
 	/*
-	 * *****************************************************
-	 * 
-	 * Insert
-	 * 
-	 * ***************************************************** 
-	 */
-	/**
-	 * inserts a record. If the record exists, and exception will be thrown.
-	 * @param namespace Namespace to store the record
-	 * @param set Set to store the record
-	 * @param key Key of the record
-	 * @param bins A list of Bins to insert
+	 * Reads a single record, hedged and retried if hedged reads are enabled
 	 */
-	public void insert(String namespace, String set, Key key, List<Bin> bins){
-
-		insert(namespace, set, key, bins, 0)	;
-
+	private Record get(final Key key, final boolean metaOnly, final String[] binNames){
+		HedgedReader reader = this.hedgedReader;
+		if (reader == null)
+			return metaOnly ? this.client.getHeader(null, key) : this.client.get(null, key, binNames);
+		return reader.get(new HedgedReader.Read() {
+			@Override
+			public Record read(Policy policy) throws AerospikeException {
+				return metaOnly ? client.getHeader(policy, key) : client.get(policy, key, binNames);
+			}
+		});
 	}
-	/**
-	 * inserts a record with a time to live. If the record exists, and exception will be thrown.
-	 * @param namespace Namespace to store the record
-	 * @param set Set to store the record
-	 * @param key Key of the record
-	 * @param bins A list of Bins to insert
-	 * @param ttl The record time to live in seconds
-	 */
-	public void insert(String namespace, String set, Key key, List<Bin> bins, int ttl){
 
-		this.client.put(this.insertPolicy, key, bins.toArray(new Bin[0]));	
-
-	}
-	/**
-	 * inserts a record using a Statement and KeyQualifier. If the record exists, and exception will be thrown.
-	 * @param stmt A Statement object containing Namespace and Set 
-	 * @param keyQualifier KeyQualifier containin the primary key
-	 * @param bins A list of Bins to insert
+	/*
+	 * Reads the record of the KeyQualifier and evaluates the other qualifiers on it
+	 * Returns null if there is no record or it does not match.
 	 */
-	public void insert(Statement stmt, KeyQualifier keyQualifier, List<Bin> bins){
-		insert(stmt, keyQualifier, bins, 0);
+	private KeyRecord getMatching(Statement stmt, int keyIndex, Qualifier[] qualifiers){
+		Key key = ((KeyQualifier) qualifiers[keyIndex]).makeKey(stmt.getNamespace(), stmt.getSetName());
+		Record record = get(key, false, null);
+		if (record == null)
+			return null;
+		for (int i = 0; i < qualifiers.length; i++){
+			if (i != keyIndex && qualifiers[i] != null && !qualifiers[i].matches(key, record))
+				return null;
+		}
+		return new KeyRecord(key, record);
 	}
-	/**
-	 * inserts a record, with a time to live, using a Statement and KeyQualifier. If the record exists, and exception will be thrown.
-	 * @param stmt A Statement object containing Namespace and Set 
-	 * @param keyQualifier KeyQualifier containin the primary key
-	 * @param bins A list of Bins to insert
-	 * @param ttl The record time to live in seconds
-	 */
-	public void insert(Statement stmt, KeyQualifier keyQualifier, List<Bin> bins, int ttl){
-		Key key = keyQualifier.makeKey(stmt.getNamespace(), stmt.getSetName());
-		//		Key key = new Key(stmt.getNamespace(), stmt.getSetName(), keyQualifier.getValue1());
-		this.client.put(this.insertPolicy, key, bins.toArray(new Bin[0]));	
 
+	/*
+	 * Keeps only the Bins of the Statement, none for meta data only
+	 */
+	static KeyRecord project(KeyRecord keyRecord, String[] binNames){
+		if (binNames == null || keyRecord.record.bins == null)
+			return keyRecord;
+		Map<String, Object> bins = new HashMap<String, Object>();
+		for (String binName : binNames){
+			if (keyRecord.record.bins.containsKey(binName))
+				bins.put(binName, keyRecord.record.bins.get(binName));
+		}
+		Record record = new Record(bins, keyRecord.record.generation, keyRecord.record.expiration);
+		return new KeyRecord(keyRecord.key, record);
 	}
 
+	private int findMultiKey(Qualifier[] qualifiers){
+		for (int i = 0; i < qualifiers.length; i++){
+			if (qualifiers[i] instanceof MultiKeyQualifier)
+				return i;
+		}
+		return -1;
+	}
 
 	/*
-	 * *****************************************************
-	 * 
-	 * Update
-	 * 
-	 * ***************************************************** 
+	 * Reads the records of a MultiKeyQualifier with batch reads, in chunks of batchSize keys. 
+	 * The other qualifiers are evaluated in the client, the batch reads the Bins of the Statement
+	 * and those of the qualifiers, and the records are then projected to the Bins of the Statement.
 	 */
-	/**
-	 * The list of Bins will update each record that match the Qualifiers supplied.
-	 * @param stmt A Statement object containing Namespace and Set 
-	 * @param bins A list of Bin objects with the values to updated
-	 * @param qualifiers Zero or more Qualifiers for the update query
-	 * @return returns a Map containing a number of successful updates. The Map will contain 2 keys "read" and "write", the values will be the count of successful operations
+	private KeyRecordIterator selectKeys(Statement stmt, boolean metaOnly, int multiKey, Qualifier[] qualifiers){
+		List<Key> keys = ((MultiKeyQualifier) qualifiers[multiKey]).makeKeys(stmt.getNamespace(), stmt.getSetName());
+		List<Qualifier> clientFilters = new ArrayList<Qualifier>();
+		for (int i = 0; i < qualifiers.length; i++){
+			if (i != multiKey && qualifiers[i] != null)
+				clientFilters.add(qualifiers[i]);
+		}
+		if (clientFilters.isEmpty())
+			return new BatchKeyRecordIterator(this.client, null, stmt.getNamespace(), keys, stmt.getBinNames(), metaOnly, this.batchSize);
+		String[] binNames = metaOnly ? new String[0] : stmt.getBinNames();
+		if (binNames == null || binNames.length == 0 && !metaOnly){
+			KeyRecordIterator results = new BatchKeyRecordIterator(this.client, null, stmt.getNamespace(), keys, null, false, this.batchSize);
+			return new FilteredKeyRecordIterator(stmt.getNamespace(), results, clientFilters);
+		}
+		Set<String> readBins = new HashSet<String>(Arrays.asList(binNames));
+		for (Qualifier qualifier : clientFilters)
+			addQualifierBins(qualifier, readBins);
+		KeyRecordIterator results = readBins.isEmpty()
+				? new BatchKeyRecordIterator(this.client, null, stmt.getNamespace(), keys, null, true, this.batchSize)
+				: new BatchKeyRecordIterator(this.client, null, stmt.getNamespace(), keys, readBins.toArray(new String[readBins.size()]), false, this.batchSize);
+		return new FilteredKeyRecordIterator(stmt.getNamespace(), results, clientFilters, binNames);
+	}
+
+	/*
+	 * Adds the Bins a Qualifier reads, the meta data fields such as "__key" are not Bins
 	 */
-	public Map<String, Long> update(Statement stmt, List<Bin> bins, Qualifier... qualifiers){
-		if (qualifiers != null && qualifiers.length == 1 && qualifiers[0] instanceof KeyQualifier)  {
-			KeyQualifier keyQualifier = (KeyQualifier)qualifiers[0];
-			Key key = keyQualifier.makeKey(stmt.getNamespace(), stmt.getSetName());
-			this.client.put(this.updatePolicy, key, bins.toArray(new Bin[0]));
-			Map<String, Long> result = new HashMap<String, Long>();
-			result.put("read", 1L);
-			result.put("write", 1L);
-			return result;
-		} else {
-			KeyRecordIterator results = select(stmt, true, null, qualifiers);
-			return update(results, bins);
+	static void addQualifierBins(Qualifier qualifier, Set<String> binNames){
+		if (qualifier instanceof OrQualifier){
+			for (Qualifier branch : ((OrQualifier) qualifier).getQualifiers())
+				addQualifierBins(branch, binNames);
+			return;
 		}
+		String field = qualifier.getField();
+		if (field != null && !field.startsWith("__"))
+			binNames.add(field);
 	}
 
-	private Map<String, Long> update(KeyRecordIterator results, List<Bin> bins){
-		long readCount = 0;
-		long updateCount = 0;
-		while (results.hasNext()){
-			KeyRecord keyRecord = results.next();
-			readCount++;
-			WritePolicy up = new WritePolicy(updatePolicy);
-			up.generation = keyRecord.record.generation;
+	/*
+	 * Sorts the records of a primary key select, or of a select without a limit, in the client. 
+	 * The Bins of the sortMap are read too, and removed after the sort if the Statement does not select them.
+	 */
+	private KeyRecordIterator sortInClient(Statement stmt, Map<String, String> sortMap, Qualifier[] qualifiers){
+		final String[] binNames = stmt.getBinNames();
+		List<KeyRecord> records = new ArrayList<KeyRecord>();
+		try {
+			if (binNames != null && binNames.length > 0){
+				Set<String> readBins = new LinkedHashSet<String>(Arrays.asList(binNames));
+				readBins.addAll(sortMap.keySet());
+				stmt.setBinNames(readBins.toArray(new String[readBins.size()]));
+			}
+			KeyRecordIterator results = select(stmt, false, null, qualifiers);
 			try {
-				client.put(up, keyRecord.key, bins.toArray(new Bin[0]));
-				updateCount++;
-			} catch (AerospikeException e){
-				System.out.println(keyRecord.key);
+				while (results.hasNext())
+					records.add(results.next());
+			} finally {
+				try {
+					results.close();
+				} catch (IOException e) {
+					log.debug("Error closing select", e);
+				}
 			}
+		} finally {
+			if (binNames != null && binNames.length > 0)
+				stmt.setBinNames(binNames);
 		}
-		Map<String, Long> map = new HashMap<String, Long>();
-		map.put("read", readCount);
-		map.put("write", updateCount);
-		return map;
+		Collections.sort(records, new RecordComparator(sortMap));
+		final Iterator<KeyRecord> iterator = records.iterator();
+		return new KeyRecordIterator(stmt.getNamespace()){
+			@Override
+			protected boolean fetchHasNext() {
+				return iterator.hasNext();
+			}
+			@Override
+			protected KeyRecord fetchNext() {
+				return iterator.hasNext() ? project(iterator.next(), (binNames == null || binNames.length == 0) ? null : binNames) : null;
+			}
+		};
 	}
 
 	/*
-	 * *****************************************************
-	 * 
-	 * Delete
-	 * 
-	 * ***************************************************** 
+	 * Runs one index query per branch of the disjunction, in parallel, each with the other qualifiers 
+	 * in its Lua filter, and merges the results without duplicates
 	 */
-	/**
-	 * Deletes the records specified by the Statement and Qualifiers
-	 * @param stmt A Statement object containing Namespace and Set 
-	 * @param qualifiers Zero or more Qualifiers for the update query
-	 * @return returns a Map containing a number of successful updates. The Map will contain 2 keys "read" and "write", the values will be the count of successful operations
+	private KeyRecordIterator selectUnion(Statement stmt, boolean metaOnly, Node node, int union, Qualifier[] qualifiers){
+		List<Qualifier> branches = qualifiers[union].getBranches();
+		List<KeyRecordIterator> streams = new ArrayList<KeyRecordIterator>(branches.size());
+		try {
+			for (Qualifier branch : branches){
+				Statement branchStmt = copyStatement(stmt);
+				Qualifier[] branchQualifiers = qualifiers.clone();
+				branchQualifiers[union] = null;
+				List<Qualifier> clientFilters = new ArrayList<Qualifier>();
+				boolean aggregate = prepareAggregate(branchStmt, metaOnly ? "query_meta" : "select_records", new HashMap<String, Object>(), branch.asFilter(), branchQualifiers, clientFilters);
+				streams.add(clientFilter(branchStmt, queryNode(branchStmt, aggregate, node), clientFilters));
+			}
+		} catch (AerospikeException e){
+			for (KeyRecordIterator stream : streams){
+				try {
+					stream.close();
+				} catch (IOException ioe) {
+					log.debug("Error closing branch query", ioe);
+				}
+			}
+			throw e;
+		}
+		return new MergedKeyRecordIterator(stmt.getNamespace(), streams, getExecutor(), this.mergeQueueCapacity, true);
+	}
+
+	/*
+	 * Reads the digests matching the most selective indexed qualifier, and the other qualifiers 
+	 * that are not indexed, with query_meta. Each other indexed qualifier is read with a
+	 * query_meta index query and only the digests found by every query are kept. 
+	 * The remaining records are read with batch reads.
+	 * Returns null, to run a single query, if there are fewer than two indexed qualifiers 
+	 * or the digests would exceed the maximum intersection size, or if the Statement already has a Filter.
 	 */
-	public Map<String, Long> delete(Statement stmt, Qualifier... qualifiers){
-		if (qualifiers == null || qualifiers.length == 0){
-			/*
-			 * There are no qualifiers, so delete every record in the set
-			 * using Scan UDF delete
-			 */
-			ExecuteTask task = client.execute(null, stmt, QUERY_MODULE, "delete_record");
-			task.waitTillComplete();
+	private KeyRecordIterator selectIntersection(Statement stmt, boolean metaOnly, Qualifier[] qualifiers){
+		if (this.maxIntersectionSize <= 0 || stmt.getFilter() != null)
+			return null;
+		long objects = getObjectCount(stmt.getNamespace(), stmt.getSetName());
+		List<Integer> indexed = new ArrayList<Integer>();
+		final Map<Integer, Double> estimates = new HashMap<Integer, Double>();
+		for (int i = 0; i < qualifiers.length; i++){
+			Qualifier qualifier = qualifiers[i];
+			if (qualifier == null || !isIndexedBin(stmt, qualifier) || qualifier.asFilter() == null)
+				continue;
+			double estimate = estimateRecords(stmt, qualifier, objects);
+			if (estimate > this.maxIntersectionSize)
+				continue;
+			indexed.add(i);
+			estimates.put(i, estimate);
+		}
+		if (indexed.size() < 2)
+			return null;
+		Collections.sort(indexed, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return estimates.get(a).compareTo(estimates.get(b));
+			}
+		});
+
+		Qualifier[] residual = qualifiers.clone();
+		for (int i : indexed)
+			residual[i] = null;
+		int driver = indexed.get(0);
+		Set<ByteBuffer> digests = readDigests(stmt, qualifiers[driver].asFilter(), residual, null);
+		if (digests == null){
+			log.debug("Intersection exceeds " + this.maxIntersectionSize + " records, using a single index query");
 			return null;
 		}
-		if (qualifiers.length == 1 && qualifiers[0] instanceof KeyQualifier){
-			KeyQualifier keyQualifier = (KeyQualifier) qualifiers[0];
-			Key key = keyQualifier.makeKey(stmt.getNamespace(), stmt.getSetName());
-			this.client.delete(null, key);
-			Map<String, Long> map = new HashMap<String, Long>();
-			map.put("read", 1L);
-			map.put("write", 1L);
-			return map;
+		for (int n = 1; n < indexed.size() && !digests.isEmpty(); n++){
+			digests = readDigests(stmt, qualifiers[indexed.get(n)].asFilter(), new Qualifier[0], digests);
 		}
-		KeyRecordIterator results = select(stmt, true, null, qualifiers);
-		return delete(results);
+
+		List<Key> keys = new ArrayList<Key>(digests.size());
+		for (ByteBuffer digest : digests)
+			keys.add(new Key(stmt.getNamespace(), digest.array(), stmt.getSetName(), null));
+		return new BatchKeyRecordIterator(this.client, null, stmt.getNamespace(), keys, stmt.getBinNames(), metaOnly, this.batchSize);
 	}
 
-	private Map<String, Long> delete(KeyRecordIterator results){
-		long readCount = 0;
-		long updateCount = 0;
-		while (results.hasNext()){
-			KeyRecord keyRecord = results.next();
-			readCount++;
+	/*
+	 * Reads the digests of an index query, keeping only those in retain if it is not null.
+	 * Returns null if there are more than maxIntersectionSize digests.
+	 */
+	private Set<ByteBuffer> readDigests(Statement stmt, Filter filter, Qualifier[] qualifiers, Set<ByteBuffer> retain){
+		Statement metaStmt = copyStatement(stmt);
+		boolean aggregate = prepareAggregate(metaStmt, "query_meta", new HashMap<String, Object>(), filter, qualifiers, null);
+		Set<ByteBuffer> digests = new HashSet<ByteBuffer>();
+		KeyRecordIterator it = queryNode(metaStmt, aggregate, null);
+		try {
+			while (it.hasNext()){
+				ByteBuffer digest = ByteBuffer.wrap(it.next().key.digest);
+				if (retain == null || retain.contains(digest))
+					digests.add(digest);
+				if (digests.size() > this.maxIntersectionSize)
+					return null;
+			}
+		} finally {
 			try {
-				if (client.delete(null, keyRecord.key))
-					updateCount++;
-			} catch (AerospikeException e){
-				log.error("Unexpected exception deleting "+ keyRecord.key, e);
+				it.close();
+			} catch (IOException e) {
+				log.debug("Error closing index query", e);
 			}
 		}
-		Map<String, Long> map = new HashMap<String, Long>();
-		map.put("read", readCount);
-		map.put("write", updateCount);
-		return map;
+		return digests;
 	}
 
-
-
-	private String buildSortFunction(Map<String, String> sortMap) {
-		// TODO Auto-generated method stub
-		return null;
+	private Statement copyStatement(Statement stmt){
+		Statement copy = new Statement();
+		copy.setNamespace(stmt.getNamespace());
+		copy.setSetName(stmt.getSetName());
+		copy.setIndexName(stmt.getIndexName());
+		if (stmt.getBinNames() != null)
+			copy.setBinNames(stmt.getBinNames());
+		if (stmt.getFilter() != null)
+			copy.setFilter(stmt.getFilter());
+		return copy;
 	}
 
+	/**
+	 * Select records filtered by Qualifiers, running one query per node in the cluster. 
+	 * Each node is read on a thread from the ExecutorService, see {@link #setExecutor(ExecutorService)},
+	 * and the results are merged into a single KeyRecordIterator through a bounded queue 
+	 * of {@link #setMergeQueueCapacity(int)} records. A slow node does not hold back 
+	 * the records already returned by the other nodes.
+	 * @param stmt A Statement object containing Namespace, Set and the Bins to be returned.
+	 * @param metaOnly Set to true to return only the record meta data 
+	 * @param qualifiers Zero or more Qualifiers for the query
+	 * @return A KeyRecordIterator to iterate over the results
+	 */
+	public KeyRecordIterator selectParallel(Statement stmt, boolean metaOnly, Qualifier... qualifiers){
+		if (qualifiers != null && (findKey(qualifiers) >= 0 || findMultiKey(qualifiers) >= 0))
+			return select(stmt, metaOnly, null, qualifiers);
 
-	private String buildFilterFunction(Qualifier[] qualifiers) {
-		int count = 0;
-		StringBuilder sb = new StringBuilder("if ");
-		for (int i = 0; i < qualifiers.length; i++){
-			if (qualifiers[i] == null) //Skip nulls
-				continue;
-			if (qualifiers[i] instanceof KeyQualifier) //Skip primary key -- should not happen
-				continue;
-			if (count > 0)
-				sb.append(" and ");
+		boolean aggregate = (qualifiers != null && qualifiers.length > 0);
+		List<Qualifier> clientFilters = new ArrayList<Qualifier>();
+		if (aggregate)
+			aggregate = prepareAggregate(stmt, metaOnly, qualifiers, clientFilters);
 
-			sb.append(qualifiers[i].luaFilterString());
-			count++;
+		Node[] nodes = this.client.getNodes();
+		List<KeyRecordIterator> streams = new ArrayList<KeyRecordIterator>(nodes.length);
+		try {
+			for (Node node : nodes){
+				streams.add(clientFilter(stmt, queryNode(stmt, aggregate, node), clientFilters));
+			}
+		} catch (AerospikeException e){
+			for (KeyRecordIterator stream : streams){
+				try {
+					stream.close();
+				} catch (IOException ioe) {
+					log.debug("Error closing node query", ioe);
+				}
+			}
+			throw e;
 		}
-		sb.append(" then selectedRec = true end");
+		return new MergedKeyRecordIterator(stmt.getNamespace(), streams, getExecutor(), this.mergeQueueCapacity);
+	}
+
+	/**
+	 * Sets the index Filter and the select_records, or query_meta, aggregation 
+	 * with the Lua filter function built from the qualifiers.
+	 */
+	private boolean prepareAggregate(Statement stmt, boolean metaOnly, Qualifier[] qualifiers, List<Qualifier> clientFilters){
+		return prepareAggregate(stmt, metaOnly ? "query_meta" : "select_records", new HashMap<String, Object>(), null, qualifiers, clientFilters);
+	}
+
+	private boolean prepareAggregate(Statement stmt, String function, Map<String, Object> originArgs, Qualifier[] qualifiers){
+		return prepareAggregate(stmt, function, originArgs, null, qualifiers, null);
+	}
+
+	/*
+	 * The index Filter is chosen from the qualifiers unless one is given.
+	 * If clientFilters is not null, the qualifiers left for Lua can be added to it, to be evaluated 
+	 * in the client, and a plain query is used. The qualifiers are copied, the array of the caller is not modified.
+	 */
+	private boolean prepareAggregate(Statement stmt, String function, Map<String, Object> originArgs, Filter filter, Qualifier[] qualifiers, List<Qualifier> clientFilters){
+		qualifiers = (qualifiers == null) ? new Qualifier[0] : qualifiers.clone();
+		addProjection(stmt, originArgs);
+
+		if (filter != null){
+			stmt.setFilters(filter);
+		} else {
+			int indexed = chooseIndexedQualifier(stmt, qualifiers);
+			if (indexed >= 0){
+				stmt.setFilters(qualifiers[indexed].asFilter());
+				qualifiers[indexed] = null;
+			}
+		}
+		stmt.setPredExp(isPredExpEnabled() ? buildPredExp(qualifiers) : null);
+
+		/*
+		 * the limit is applied by the client, it is only a bound per node when the Lua function runs anyway
+		 */
+		boolean plain = !originArgs.containsKey("sortBins");
+		/*
+		 * query_meta returns only the meta data, so it is kept even without a filter, 
+		 * and the client cannot evaluate Qualifiers on Bins it does not receive
+		 */
+		boolean records = !function.equals("query_meta");
+		if (plain && records && clientFilters != null && useClientFilter(stmt, qualifiers)){
+			for (Qualifier qualifier : qualifiers){
+				if (qualifier != null)
+					clientFilters.add(qualifier);
+			}
+			Arrays.fill(qualifiers, null);
+		}
+
+		List<Value> filterArgs = new ArrayList<Value>();
+		String filterFuncStr = buildFilterFunction(qualifiers, filterArgs);
+		/*
+		 * without a Lua filter or sort, the records are returned by a plain query
+		 */
+		if (plain && records && filterFuncStr.equals("none")){
+			stmt.setAggregateFunction(null, null, (Value[]) null);
+			return false;
+		}
+		originArgs.put("filterFuncStr", filterFuncStr);
+		originArgs.put("filterArgs", filterArgs);
+		//System.out.println(originArgs);
+		
+		stmt.setAggregateFunction(this.getClass().getClassLoader(), AS_UTILITY_PATH, QUERY_MODULE, function, Value.get(originArgs));
+		return true;
+	}
+
+	/**
+	 * Chooses whether the Qualifiers not evaluated by an index or a predicate expression are evaluated 
+	 * in the client, on the records returned by a plain query, or by the Lua filter on the server. 
+	 * With {@link FilterMode#AUTO}, the client is used when the Qualifiers are estimated to match at least 
+	 * {@link #CLIENT_FILTER_SELECTIVITY} of the records, as most of them would be returned anyway.
+	 * The client is only used when the Statement returns all the Bins.
+	 * @param stmt the Statement
+	 * @param qualifiers the remaining Qualifiers, some may be null
+	 * @return true to evaluate the Qualifiers in the client
+	 */
+	protected boolean useClientFilter(Statement stmt, Qualifier[] qualifiers){
+		if (this.filterMode == FilterMode.LUA)
+			return false;
+		if (stmt.getBinNames() != null && stmt.getBinNames().length > 0)
+			return false;
+		if (this.filterMode == FilterMode.CLIENT)
+			return true;
+		double selectivity = 1.0;
+		for (Qualifier qualifier : qualifiers){
+			if (qualifier != null)
+				selectivity *= QueryPlanner.selectivity(qualifier);
+		}
+		return selectivity >= CLIENT_FILTER_SELECTIVITY;
+	}
+
+	private KeyRecordIterator clientFilter(Statement stmt, KeyRecordIterator results, List<Qualifier> clientFilters){
+		if (clientFilters.isEmpty())
+			return results;
+		return new FilteredKeyRecordIterator(stmt.getNamespace(), results, clientFilters);
+	}
+
+	/*
+	 * Builds the predicate expression of the qualifiers that have a native equivalent, 
+	 * setting them to null so they are not added to the Lua filter
+	 */
+	private PredExp[] buildPredExp(Qualifier[] qualifiers){
+		List<PredExp> predExps = new ArrayList<PredExp>();
+		int count = 0;
+		for (int i = 0; i < qualifiers.length; i++){
+			if (qualifiers[i] == null)
+				continue;
+			PredExp[] predExp = qualifiers[i].toPredExp();
+			if (predExp == null)
+				continue;
+			predExps.addAll(Arrays.asList(predExp));
+			qualifiers[i] = null;
+			count++;
+		}
+		if (count == 0)
+			return null;
+		if (count > 1)
+			predExps.add(PredExp.and(count));
+		return predExps.toArray(new PredExp[predExps.size()]);
+	}
+
+	private KeyRecordIterator prefetch(KeyRecordIterator results){
+		if (this.prefetchCapacity > 0)
+			results.prefetch(getExecutor(), this.prefetchCapacity, this.prefetchMaxBytes);
+		return results;
+	}
+
+	/**
+	 * Passes the Bins of the Statement to select_records as "selectFields", so only those Bins 
+	 * are returned by the nodes. The sort Bins are added, if missing, as the results are sorted on them.
+	 * Without Bin names in the Statement all the Bins are returned.
+	 */
+	@SuppressWarnings("unchecked")
+	private void addProjection(Statement stmt, Map<String, Object> originArgs){
+		String[] binNames = stmt.getBinNames();
+		if (binNames == null || binNames.length == 0){
+			originArgs.put("includeAllFields", 1);
+			return;
+		}
+		List<String> selectFields = new ArrayList<String>(Arrays.asList(binNames));
+		List<String> sortBins = (List<String>) originArgs.get("sortBins");
+		if (sortBins != null){
+			for (String sortBin : sortBins){
+				if (!selectFields.contains(sortBin))
+					selectFields.add(sortBin);
+			}
+		}
+		originArgs.put("selectFields", selectFields);
+		originArgs.put("includeAllFields", 0);
+	}
+
+	/**
+	 * Runs the Statement on one node, or on the whole cluster if node is null
+	 */
+	private KeyRecordIterator queryNode(Statement stmt, boolean aggregate, Node node){
+		if (aggregate){
+			ResultSet resultSet = null;
+			if (node != null) {
+				resultSet = this.client.queryAggregateNode(null, stmt, node);
+			} else {
+				resultSet = this.client.queryAggregate(null, stmt);
+			}
+			return new KeyRecordIterator(stmt.getNamespace(), resultSet);
+		} else {
+			RecordSet recordSet = null;
+			if (node != null)
+				recordSet = this.client.queryNode(null, stmt, node);
+			else
+				recordSet = this.client.query(null, stmt);
+			return new KeyRecordIterator(stmt.getNamespace(), recordSet);
+		}
+	}
+
+	/**
+	 * Chooses the indexed Qualifier used as the query Filter, the one with the lowest 
+	 * estimated number of records. The others are applied by the Lua filter.
+	 * @param stmt the Statement
+	 * @param qualifiers the Qualifiers
+	 * @return the position of the chosen Qualifier, or -1 if none can use an index
+	 */
+	protected int chooseIndexedQualifier(Statement stmt, Qualifier[] qualifiers){
+		long objects = getObjectCount(stmt.getNamespace(), stmt.getSetName());
+		int chosen = -1;
+		double lowest = 0;
+		for (int i = 0; i < qualifiers.length; i++){
+			Qualifier qualifier = qualifiers[i];
+			if (qualifier == null || !isIndexedBin(stmt, qualifier) || qualifier.asFilter() == null)
+				continue;
+			double estimate = estimateRecords(stmt, qualifier, objects);
+			if (chosen < 0 || estimate < lowest){
+				chosen = i;
+				lowest = estimate;
+			}
+		}
+		return chosen;
+	}
+
+	/**
+	 * Chooses a disjunction, an OR or IN Qualifier, to run as a union of index queries. 
+	 * Every branch must be able to use an index, and together they must be estimated to return 
+	 * fewer records than the most selective indexed Qualifier. A Statement that already has a Filter
+	 * runs as a single query, so that the Filter is not replaced by the branch Filters.
+	 * @param stmt the Statement
+	 * @param qualifiers the Qualifiers
+	 * @return the position of the chosen Qualifier, or -1 to run a single query
+	 */
+	protected int chooseUnionQualifier(Statement stmt, Qualifier[] qualifiers){
+		if (stmt.getFilter() != null)
+			return -1;
+		long objects = getObjectCount(stmt.getNamespace(), stmt.getSetName());
+		int chosen = -1;
+		double lowest = 0;
+		int indexed = chooseIndexedQualifier(stmt, qualifiers);
+		if (indexed >= 0)
+			lowest = estimateRecords(stmt, qualifiers[indexed], objects);
+		for (int i = 0; i < qualifiers.length; i++){
+			if (qualifiers[i] == null)
+				continue;
+			List<Qualifier> branches = qualifiers[i].getBranches();
+			if (branches == null || branches.isEmpty())
+				continue;
+			double estimate = 0;
+			for (Qualifier branch : branches){
+				if (!isIndexedBin(stmt, branch) || branch.asFilter() == null){
+					estimate = -1;
+					break;
+				}
+				estimate += estimateRecords(stmt, branch, objects);
+			}
+			if (estimate >= 0 && ((chosen < 0 && indexed < 0) || estimate < lowest)){
+				chosen = i;
+				lowest = estimate;
+			}
+		}
+		return chosen;
+	}
+
+	private double estimateRecords(Statement stmt, Qualifier qualifier, long objects){
+		double estimate = QueryPlanner.estimate(qualifier, findIndex(stmt, qualifier), objects);
+		if (log.isDebugEnabled())
+			log.debug(String.format("Estimated %.0f records for %s", estimate, qualifier));
+		return estimate;
+	}
+
+	/**
+	 * Finds the Index used by an indexed Qualifier, preferring an Index on the namespace and set of the Statement
+	 */
+	protected Index findIndex(Statement stmt, Qualifier qualifier){
+		IndexCollectionType collectionType = qualifier.asFilter().getCollectionType();
+		return this.indexCache.get().find(stmt.getNamespace(), stmt.getSetName(), qualifier.getField(), collectionType);
+	}
+
+	/**
+	 * Gets the number of objects in a set, or in the namespace if there is no set, from the Namespace cache
+	 * @return the number of objects, 0 if it is not known
+	 */
+	protected long getObjectCount(String namespace, String set){
+		Namespace ns = this.namespaceCache.get().get(namespace);
+		if (ns == null)
+			return 0;
+		if (set == null)
+			return ns.getObjects();
+		com.aerospike.helper.model.Set setModel = ns.findSet(set);
+		return (setModel == null) ? 0 : setModel.getObjects();
+	}
+
+	/**
+	 * Checks if a Qualifier can use an Index on its Bin in any namespace
+	 * @deprecated an Index is only used on its namespace and set, see {@link #isIndexedBin(Statement, Qualifier)}
+	 */
+	@Deprecated
+	protected boolean isIndexedBin(Qualifier qualifier){
+		Set<Index> indexes = this.indexCache.get().getByBin(qualifier.getField());
+		if (indexes == null)
+			return false;
+		for (Index index : indexes){
+			Statement stmt = new Statement();
+			stmt.setNamespace(index.getNamespace());
+			stmt.setSetName(index.getSet());
+			if (isIndexedBin(stmt, qualifier))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if a Qualifier can use an Index on the namespace and set of the Statement,
+	 * a lookup in the current IndexCache snapshot without locks
+	 */
+	protected boolean isIndexedBin(Statement stmt, Qualifier qualifier){
+		String field = qualifier.getField();
+		FilterOperation operation = qualifier.getOperation();
+		if ( !indexableSet.contains(operation) )
+			return false;
+		
+		IndexCache cache = this.indexCache.get();
+		if (!cache.isIndexed(stmt.getNamespace(), stmt.getSetName(), field))
+			return false;
+		
+		Filter filter = qualifier.asFilter();
+		if (filter == null)
+			return false;
+		return cache.find(stmt.getNamespace(), stmt.getSetName(), field, filter.getCollectionType()) != null;
+	}
+
+	/*
+	 * *****************************************************
+	 * 
+	 * Insert
+	 * 
+	 * ***************************************************** 
+	 */
+	/**
+	 * inserts a record. If the record exists, and exception will be thrown.
+	 * @param namespace Namespace to store the record
+	 * @param set Set to store the record
+	 * @param key Key of the record
+	 * @param bins A list of Bins to insert
+	 */
+	public void insert(String namespace, String set, Key key, List<Bin> bins){
+
+		insert(namespace, set, key, bins, 0)	;
+
+	}
+	/**
+	 * inserts a record with a time to live. If the record exists, and exception will be thrown.
+	 * @param namespace Namespace to store the record
+	 * @param set Set to store the record
+	 * @param key Key of the record
+	 * @param bins A list of Bins to insert
+	 * @param ttl The record time to live in seconds
+	 */
+	public void insert(String namespace, String set, Key key, List<Bin> bins, int ttl){
+
+		this.client.put(insertPolicy(ttl), key, bins.toArray(new Bin[0]));	
+
+	}
+	/**
+	 * inserts a record using a Statement and KeyQualifier. If the record exists, and exception will be thrown.
+	 * @param stmt A Statement object containing Namespace and Set 
+	 * @param keyQualifier KeyQualifier containin the primary key
+	 * @param bins A list of Bins to insert
+	 */
+	public void insert(Statement stmt, KeyQualifier keyQualifier, List<Bin> bins){
+		insert(stmt, keyQualifier, bins, 0);
+	}
+	/**
+	 * inserts a record, with a time to live, using a Statement and KeyQualifier. If the record exists, and exception will be thrown.
+	 * @param stmt A Statement object containing Namespace and Set 
+	 * @param keyQualifier KeyQualifier containin the primary key
+	 * @param bins A list of Bins to insert
+	 * @param ttl The record time to live in seconds
+	 */
+	public void insert(Statement stmt, KeyQualifier keyQualifier, List<Bin> bins, int ttl){
+		Key key = keyQualifier.makeKey(stmt.getNamespace(), stmt.getSetName());
+		//		Key key = new Key(stmt.getNamespace(), stmt.getSetName(), keyQualifier.getValue1());
+		this.client.put(insertPolicy(ttl), key, bins.toArray(new Bin[0]));	
+
+	}
+	/**
+	 * inserts several records, with several writes in flight, see {@link #insertAll(Iterable, int, Collection)}
+	 * @param records the Keys and Bins of the records
+	 * @return returns a Map containing the counts of the insert
+	 */
+	public Map<String, Long> insertAll(Iterable<KeyBins> records){
+		return insertAll(records.iterator(), 0, null);
+	}
+	/**
+	 * inserts several records, with several writes in flight, see {@link #setWriteWindow(int)}.
+	 * Records that already exist are not written, and do not stop the insert.
+	 * @param records the Keys and Bins of the records
+	 * @param ttl The record time to live in seconds, 0 for the insertPolicy expiration
+	 * @param existingKeys receives the Keys of the records that already exist, may be null
+	 * @return returns a Map containing the counts of the insert: "read" the records supplied, "write" the records inserted,
+	 * "exists" the records that already exist, "failed", "elapsedMillis" and "recordsPerSecond"
+	 */
+	public Map<String, Long> insertAll(Iterable<KeyBins> records, int ttl, Collection<Key> existingKeys){
+		return insertAll(records.iterator(), ttl, existingKeys);
+	}
+	/**
+	 * inserts the records supplied by a producer, with several writes in flight, see {@link #setWriteWindow(int)}.
+	 * The producer is read as the writes complete, so the records do not need to be in memory. 
+	 * Records that already exist are not written, and do not stop the insert.
+	 * @param records the producer of the Keys and Bins of the records
+	 * @param ttl The record time to live in seconds, 0 for the insertPolicy expiration
+	 * @param existingKeys receives the Keys of the records that already exist, may be null
+	 * @return returns a Map containing the counts of the insert, see {@link #insertAll(Iterable, int, Collection)}
+	 */
+	public Map<String, Long> insertAll(Iterator<KeyBins> records, int ttl, final Collection<Key> existingKeys){
+		final WritePolicy policy = insertPolicy(ttl);
+		WritePipeline pipeline = null;
+		long readCount = 0;
+		try {
+			while (records.hasNext()){
+				final KeyBins record = records.next();
+				readCount++;
+				if (pipeline == null)
+					pipeline = newPipeline(record.key.namespace);
+				pipeline.submit(new WritePipeline.Write() {
+					@Override
+					public boolean execute() throws AerospikeException {
+						try {
+							client.put(policy, record.key, record.bins);
+							return true;
+						} catch (AerospikeException e){
+							if (e.getResultCode() != ResultCode.KEY_EXISTS_ERROR)
+								throw e;
+							if (existingKeys != null){
+								synchronized (existingKeys) {
+									existingKeys.add(record.key);
+								}
+							}
+							return false;
+						}
+					}
+				});
+			}
+		} finally {
+			if (pipeline != null)
+				pipeline.await();
+		}
+		if (pipeline == null)
+			pipeline = newPipeline(null);
+		Map<String, Long> map = pipeline.getCounts();
+		map.put("exists", map.remove("notWritten"));
+		map.put("read", readCount);
+		return map;
+	}
+
+	private WritePolicy insertPolicy(int ttl){
+		if (ttl == 0)
+			return this.insertPolicy;
+		WritePolicy writePolicy = new WritePolicy(this.insertPolicy);
+		writePolicy.expiration = ttl;
+		return writePolicy;
+	}
+
+
+	/*
+	 * *****************************************************
+	 * 
+	 * Update
+	 * 
+	 * ***************************************************** 
+	 */
+	/**
+	 * The list of Bins will update each record that match the Qualifiers supplied.
+	 * @param stmt A Statement object containing Namespace and Set 
+	 * @param bins A list of Bin objects with the values to updated
+	 * @param qualifiers Zero or more Qualifiers for the update query
+	 * @return returns a Map containing a number of successful updates. The Map will contain 2 keys "read" and "write", the values will be the count of successful operations.
+	 * When several records are updated, it also contains "conflict", the writes that failed because the record changed since it was read, 
+	 * "retry" the writes retried after re-reading the record, "noLongerMatching" the changed records that no longer match, 
+	 * "unresolved" the changed records that were not written after the last retry, and "failed", see {@link #setConflictRetries(int, long)}
+	 */
+	public Map<String, Long> update(Statement stmt, List<Bin> bins, Qualifier... qualifiers){
+		return update(stmt, binUpdate(bins), true, qualifiers, null);
+	}
+
+	private RecordUpdate binUpdate(List<Bin> bins){
+		final Bin[] binArray = bins.toArray(new Bin[bins.size()]);
+		return new RecordUpdate() {
+			@Override
+			public void write(WritePolicy policy, Key key) {
+				client.put(policy, key, binArray);
+			}
+		};
+	}
+	/**
+	 * The Operations, e.g. an add, a ListOperation or a MapOperation, are applied atomically to each record 
+	 * that match the Qualifiers supplied, with operate. When several records are updated, the Operations 
+	 * are applied without checking the generation of the records, so there are no conflicts on records 
+	 * changed since they were selected. 
+	 * @param stmt A Statement object containing Namespace and Set 
+	 * @param operations the Operations applied to each record, the results of read Operations are ignored
+	 * @param qualifiers Zero or more Qualifiers for the update query
+	 * @return returns a Map containing a number of successful updates, see {@link #update(Statement, List, Qualifier...)}
+	 */
+	public Map<String, Long> update(Statement stmt, final Operation[] operations, Qualifier... qualifiers){
+		return update(stmt, new RecordUpdate() {
+			@Override
+			public void write(WritePolicy policy, Key key) {
+				client.operate(policy, key, operations);
+			}
+		}, false, qualifiers, null);
+	}
+
+	/*
+	 * Writes one record of an update, with a put of Bins or the operate of Operations
+	 */
+	private interface RecordUpdate {
+		void write(WritePolicy policy, Key key);
+	}
+
+	private Map<String, Long> update(Statement stmt, RecordUpdate recordUpdate, boolean checkGeneration, Qualifier[] qualifiers, Job job){
+		if (qualifiers == null)
+			qualifiers = new Qualifier[0];
+		if (qualifiers.length == 1 && qualifiers[0] instanceof KeyQualifier)  {
+			KeyQualifier keyQualifier = (KeyQualifier)qualifiers[0];
+			Key key = keyQualifier.makeKey(stmt.getNamespace(), stmt.getSetName());
+			recordUpdate.write(this.updatePolicy, key);
+			Map<String, Long> result = new HashMap<String, Long>();
+			result.put("read", 1L);
+			result.put("write", 1L);
+			return result;
+		} else if (findKey(qualifiers) >= 0) {
+			/*
+			 * primary key with other qualifiers, written only if the record is unchanged since it matched
+			 */
+			long written = 0;
+			KeyRecord keyRecord = getMatching(stmt, findKey(qualifiers), qualifiers);
+			if (keyRecord != null){
+				try {
+					recordUpdate.write(generationPolicy(this.updatePolicy, keyRecord.record.generation), keyRecord.key);
+					written = 1;
+				} catch (AerospikeException e){
+					if (e.getResultCode() != ResultCode.GENERATION_ERROR)
+						throw e;
+					log.debug("Record changed since it was read " + keyRecord.key);
+				}
+			}
+			Map<String, Long> result = new HashMap<String, Long>();
+			result.put("read", (keyRecord == null) ? 0L : 1L);
+			result.put("write", written);
+			return result;
+		} else {
+			KeyRecordIterator results = select(stmt, true, null, qualifiers);
+			return update(results, recordUpdate, checkGeneration, qualifiers, job);
+		}
+	}
+
+	private WritePolicy generationPolicy(WritePolicy policy, int generation){
+		WritePolicy writePolicy = new WritePolicy(policy);
+		writePolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
+		writePolicy.generation = generation;
+		return writePolicy;
+	}
+
+	/**
+	 * Updates the records that match the Qualifiers on the server, with a background UDF, 
+	 * without returning them to the client. The best indexed Qualifier is used as the query Filter 
+	 * and the others are evaluated by the Lua filter of the <code>update_record</code> UDF on each node.
+	 * The task id is set on the Statement, see {@link #getJobStatus(Statement)}.
+	 * @param stmt A Statement object containing Namespace and Set 
+	 * @param bins A list of Bin objects with the values to updated
+	 * @param qualifiers Zero or more Qualifiers for the update query, primary key Qualifiers are not supported
+	 * @return the ExecuteTask of the background update
+	 */
+	public ExecuteTask updateOnServer(Statement stmt, List<Bin> bins, Qualifier... qualifiers){
+		Map<String, Object> binMap = new HashMap<String, Object>();
+		for (Bin bin : bins)
+			binMap.put(bin.name, bin.value.getObject());
+		return updateOnServer(stmt, binMap, new ArrayList<List<Object>>(), qualifiers);
+	}
+	/**
+	 * Applies the Operations to the records that match the Qualifiers on the server, with a background UDF, 
+	 * see {@link #updateOnServer(Statement, List, Qualifier...)}. Only the WRITE, ADD, APPEND and PREPEND 
+	 * Operations, on integer and string values, can be evaluated by the UDF.
+	 * @param stmt A Statement object containing Namespace and Set 
+	 * @param operations the Operations applied to each record
+	 * @param qualifiers Zero or more Qualifiers for the update query, primary key Qualifiers are not supported
+	 * @return the ExecuteTask of the background update
+	 */
+	public ExecuteTask updateOnServer(Statement stmt, Operation[] operations, Qualifier... qualifiers){
+		Map<String, Object> binMap = new HashMap<String, Object>();
+		List<List<Object>> operationList = new ArrayList<List<Object>>();
+		for (Operation operation : operations){
+			switch (operation.type){
+			case WRITE:
+				binMap.put(operation.binName, operation.value.getObject());
+				break;
+			case ADD:
+			case APPEND:
+			case PREPEND:
+				List<Object> udfOperation = new ArrayList<Object>();
+				udfOperation.add(operation.type.toString().toLowerCase());
+				udfOperation.add(operation.binName);
+				udfOperation.add(operation.value.getObject());
+				operationList.add(udfOperation);
+				break;
+			default:
+				throw new IllegalArgumentException("Operation " + operation.type + " is not supported by updateOnServer, use update");
+			}
+		}
+		return updateOnServer(stmt, binMap, operationList, qualifiers);
+	}
+
+	private ExecuteTask updateOnServer(Statement stmt, Map<String, Object> binMap, List<List<Object>> operations, Qualifier[] qualifiers){
+		List<Value> filterArgs = new ArrayList<Value>();
+		String filterFuncStr = prepareBackground(stmt, filterArgs, qualifiers);
+		return client.execute(this.updatePolicy, stmt, QUERY_MODULE, "update_record", 
+				Value.get(filterFuncStr), Value.get(filterArgs), Value.get(binMap), Value.get(operations));
+	}
+
+	/*
+	 * Sets the best indexed Qualifier as the Filter of a background query, 
+	 * the others are returned as the Lua filter of the UDF
+	 */
+	private String prepareBackground(Statement stmt, List<Value> filterArgs, Qualifier[] qualifiers){
+		Qualifier[] remaining = (qualifiers == null) ? new Qualifier[0] : qualifiers.clone();
+		if (findKey(remaining) >= 0 || findMultiKey(remaining) >= 0)
+			throw new IllegalArgumentException("Primary key Qualifiers are not supported by background queries");
+		int indexed = chooseIndexedQualifier(stmt, remaining);
+		if (indexed >= 0){
+			stmt.setFilters(remaining[indexed].asFilter());
+			remaining[indexed] = null;
+		} else {
+			stmt.setFilter(null);
+		}
+		stmt.setPredExp((PredExp[]) null);
+		return buildFilterFunction(remaining, filterArgs);
+	}
+
+	/**
+	 * Gets the progress of a background job, such as {@link #updateOnServer(Statement, List, Qualifier...)},
+	 * from every node. The numeric fields of the job, e.g. "recs-read", are summed over the nodes, 
+	 * "nodes" and "nodesDone" count the nodes that have, or have finished, the job.
+	 * @param stmt the Statement of the job
+	 * @return a Map of the job fields
+	 */
+	public Map<String, Long> getJobStatus(Statement stmt){
+		String module = (stmt.getFilter() == null) ? "scan" : "query";
+		String command = "jobs:module=" + module + ";cmd=get-job;trid=" + stmt.getTaskId();
+		Map<String, Long> status = new HashMap<String, Long>();
+		status.put("nodes", 0L);
+		status.put("nodesDone", 0L);
+		for (Node node : client.getNodes()){
+			mergeJobStatus(Info.request(this.infoPolicy, node, command), status);
+		}
+		return status;
+	}
+
+	/*
+	 * Adds the job info of one node, e.g. "trid=1:status=active(ok):recs-read=100", to the totals.
+	 * A node that no longer knows the job has finished it.
+	 */
+	static void mergeJobStatus(String info, Map<String, Long> status){
+		status.put("nodes", status.get("nodes") + 1);
+		if (info == null || info.startsWith("ERROR")){
+			status.put("nodesDone", status.get("nodesDone") + 1);
+			return;
+		}
+		for (String field : info.trim().split("[:;]")){
+			int equals = field.indexOf('=');
+			if (equals < 0)
+				continue;
+			String name = field.substring(0, equals);
+			String value = field.substring(equals + 1);
+			if (name.equals("status")){
+				if (value.startsWith("done"))
+					status.put("nodesDone", status.get("nodesDone") + 1);
+			} else if (!name.equals("trid")){
+				try {
+					long number = Long.parseLong(value);
+					Long total = status.get(name);
+					status.put(name, (total == null) ? number : total + number);
+				} catch (NumberFormatException e){
+					// not a counter
+				}
+			}
+		}
+	}
+
+	/*
+	 * Writes the matched records through a WritePipeline, each worker thread reuses 
+	 * one WritePolicy, generation checked unless the update is atomic.
+	 * The records changed since they were selected are re-read, and written again if 
+	 * they still match the Qualifiers, up to conflictRetries times.
+	 */
+	private Map<String, Long> update(KeyRecordIterator results, final RecordUpdate recordUpdate, final boolean checkGeneration, Qualifier[] qualifiers, Job job){
+		final WritePolicy basePolicy = this.updatePolicy;
+		final ThreadLocal<WritePolicy> policies = new ThreadLocal<WritePolicy>(){
+			@Override
+			protected WritePolicy initialValue() {
+				WritePolicy writePolicy = new WritePolicy(basePolicy);
+				if (checkGeneration)
+					writePolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
+				return writePolicy;
+			}
+		};
+		WritePipeline pipeline = newPipeline(results.getNamespace());
+		List<Key> conflicts = Collections.synchronizedList(new ArrayList<Key>());
+		List<Key> retryConflicts = checkGeneration && this.conflictRetries > 0 ? conflicts : null;
+		if (job != null)
+			job.setPipeline(pipeline);
+		long readCount = 0;
+		try {
+			while (results.hasNext()){
+				if (job != null && job.isCancelled())
+					break;
+				KeyRecord keyRecord = results.next();
+				readCount++;
+				if (job != null)
+					job.recordRead();
+				submitUpdate(pipeline, policies, recordUpdate, keyRecord, retryConflicts);
+			}
+		} finally {
+			pipeline.await();
+			try {
+				results.close();
+			} catch (IOException e) {
+				log.debug("Error closing results", e);
+			}
+		}
+		long retries = 0;
+		long noLongerMatching = 0;
+		for (int attempt = 0; attempt < this.conflictRetries && !conflicts.isEmpty() && (job == null || !job.isCancelled()); attempt++){
+			List<Key> keys = new ArrayList<Key>(conflicts);
+			conflicts.clear();
+			backoff(attempt);
+			KeyRecordIterator reread = new BatchKeyRecordIterator(this.client, null, keys.get(0).namespace, keys, null, false, this.batchSize);
+			int found = 0;
+			try {
+				while (reread.hasNext()){
+					KeyRecord keyRecord = reread.next();
+					found++;
+					if (matchesAll(keyRecord, qualifiers)){
+						retries++;
+						submitUpdate(pipeline, policies, recordUpdate, keyRecord, retryConflicts);
+					} else {
+						noLongerMatching++;
+					}
+				}
+			} finally {
+				pipeline.await();
+			}
+			noLongerMatching += keys.size() - found; // deleted since they were selected
+		}
+		Map<String, Long> map = pipeline.getCounts();
+		map.put("read", readCount);
+		map.put("retry", retries);
+		map.put("noLongerMatching", noLongerMatching);
+		map.put("unresolved", (long) conflicts.size());
+		return map;
+	}
+
+	private void submitUpdate(WritePipeline pipeline, final ThreadLocal<WritePolicy> policies, final RecordUpdate recordUpdate, 
+			final KeyRecord keyRecord, final List<Key> conflicts){
+		pipeline.submit(new WritePipeline.Write() {
+			@Override
+			public boolean execute() throws AerospikeException {
+				WritePolicy writePolicy = policies.get();
+				writePolicy.generation = keyRecord.record.generation;
+				try {
+					recordUpdate.write(writePolicy, keyRecord.key);
+				} catch (AerospikeException e){
+					if (conflicts != null && e.getResultCode() == ResultCode.GENERATION_ERROR)
+						conflicts.add(keyRecord.key);
+					throw e;
+				}
+				return true;
+			}
+		});
+	}
+
+	private boolean matchesAll(KeyRecord keyRecord, Qualifier[] qualifiers){
+		if (qualifiers == null)
+			return true;
+		for (Qualifier qualifier : qualifiers){
+			if (qualifier != null && !qualifier.matches(keyRecord.key, keyRecord.record))
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Sleeps for conflictBackoff doubled on each attempt, with a random jitter of +/- 50%
+	 * so concurrent writers do not retry in step
+	 */
+	private void backoff(int attempt){
+		long delay = this.conflictBackoff << Math.min(attempt, 16);
+		if (delay <= 0)
+			return;
+		delay = delay / 2 + (long) (this.random.nextDouble() * delay);
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AerospikeException(e);
+		}
+	}
+
+	/*
+	 * *****************************************************
+	 * 
+	 * Jobs
+	 * 
+	 * ***************************************************** 
+	 */
+	/**
+	 * Starts a bulk update as a background Job, see {@link #update(Statement, List, Qualifier...)}.
+	 * The records are updated in buckets of digests, see {@link #setJobBuckets(int)}, and the progress 
+	 * is saved after each bucket in the checkpoint set, so submitting a Job with the same id resumes it.
+	 * @param jobId the id of the Job, null for a Job without checkpoints
+	 * @param stmt A Statement object containing Namespace and Set 
+	 * @param bins A list of Bin objects with the values to updated
+	 * @param qualifiers Zero or more Qualifiers for the update query
+	 * @return the running Job
+	 */
+	public Job submitUpdate(String jobId, final Statement stmt, List<Bin> bins, final Qualifier... qualifiers){
+		final RecordUpdate recordUpdate = binUpdate(bins);
+		return submitJob(jobId, stmt, qualifiers, new Job.Work() {
+			@Override
+			public Map<String, Long> run(Qualifier bucket, Job job) {
+				return update(copyStatement(stmt), recordUpdate, true, withBucket(qualifiers, bucket), job);
+			}
+		});
+	}
+	/**
+	 * Starts a bulk update with Operations as a background Job, see {@link #submitUpdate(String, Statement, List, Qualifier...)}.
+	 * The Operations of the bucket running when the Job stopped are applied again when it resumes.
+	 * @param jobId the id of the Job, null for a Job without checkpoints
+	 * @param stmt A Statement object containing Namespace and Set 
+	 * @param operations the Operations applied to each record
+	 * @param qualifiers Zero or more Qualifiers for the update query
+	 * @return the running Job
+	 */
+	public Job submitUpdate(String jobId, final Statement stmt, final Operation[] operations, final Qualifier... qualifiers){
+		final RecordUpdate recordUpdate = new RecordUpdate() {
+			@Override
+			public void write(WritePolicy policy, Key key) {
+				client.operate(policy, key, operations);
+			}
+		};
+		return submitJob(jobId, stmt, qualifiers, new Job.Work() {
+			@Override
+			public Map<String, Long> run(Qualifier bucket, Job job) {
+				return update(copyStatement(stmt), recordUpdate, false, withBucket(qualifiers, bucket), job);
+			}
+		});
+	}
+	/**
+	 * Starts a bulk delete as a background Job, see {@link #submitUpdate(String, Statement, List, Qualifier...)}. 
+	 * The records are always deleted by the client, with several deletes in flight.
+	 * @param jobId the id of the Job, null for a Job without checkpoints
+	 * @param stmt A Statement object containing Namespace and Set 
+	 * @param qualifiers Zero or more Qualifiers for the delete query
+	 * @return the running Job
+	 */
+	public Job submitDelete(String jobId, final Statement stmt, final Qualifier... qualifiers){
+		return submitJob(jobId, stmt, qualifiers, new Job.Work() {
+			@Override
+			public Map<String, Long> run(Qualifier bucket, Job job) {
+				Qualifier[] bucketQualifiers = withBucket(qualifiers, bucket);
+				if (findKey(bucketQualifiers) >= 0)
+					return delete(copyStatement(stmt), bucketQualifiers);
+				return delete(select(copyStatement(stmt), true, null, bucketQualifiers), job);
+			}
+		});
+	}
+
+	private Job submitJob(String jobId, Statement stmt, Qualifier[] qualifiers, Job.Work work){
+		Qualifier[] all = (qualifiers == null) ? new Qualifier[0] : qualifiers;
+		// primary keys are not split in buckets
+		int buckets = (findKey(all) >= 0 || findMultiKey(all) >= 0) ? 1 : this.jobBuckets;
+		Key checkpointKey = (jobId == null) ? null : new Key(stmt.getNamespace(), this.checkpointSet, jobId);
+		Job job = new Job(jobId, this.client, checkpointKey, buckets, work);
+		job.start();
+		return job;
+	}
+
+	/*
+	 * Appends the Qualifier of a bucket to a copy of the Qualifiers
+	 */
+	private Qualifier[] withBucket(Qualifier[] qualifiers, Qualifier bucket){
+		Qualifier[] all = (qualifiers == null) ? new Qualifier[0] : qualifiers;
+		if (bucket == null)
+			return all.clone();
+		Qualifier[] result = Arrays.copyOf(all, all.length + 1);
+		result[all.length] = bucket;
+		return result;
+	}
+
+	/*
+	 * *****************************************************
+	 * 
+	 * Delete
+	 * 
+	 * ***************************************************** 
+	 */
+	/**
+	 * Deletes the records specified by the Statement and Qualifiers, see {@link #setDeleteStrategy(DeleteStrategy)}
+	 * @param stmt A Statement object containing Namespace and Set 
+	 * @param qualifiers Zero or more Qualifiers for the update query
+	 * @return returns a Map containing a number of successful updates. The Map will contain 2 keys "read" and "write", the values will be the count of successful operations.
+	 * A truncated set returns "objects", the number of objects of the set before it was truncated, and a delete on the server returns the counts of the job.
+	 */
+	public Map<String, Long> delete(Statement stmt, Qualifier... qualifiers){
+		if (qualifiers == null || qualifiers.length == 0){
+			/*
+			 * There are no qualifiers, so delete every record in the set
+			 * by truncating it, only if asked to, or using Scan UDF delete
+			 */
+			if (this.deleteStrategy == DeleteStrategy.TRUNCATE)
+				return truncate(stmt);
+			return deleteAll(stmt, this.deleteStrategy == DeleteStrategy.PIPELINE);
+		}
+		if (qualifiers.length == 1 && qualifiers[0] instanceof KeyQualifier){
+			KeyQualifier keyQualifier = (KeyQualifier) qualifiers[0];
+			Key key = keyQualifier.makeKey(stmt.getNamespace(), stmt.getSetName());
+			this.client.delete(null, key);
+			Map<String, Long> map = new HashMap<String, Long>();
+			map.put("read", 1L);
+			map.put("write", 1L);
+			return map;
+		}
+		int keyIndex = findKey(qualifiers);
+		if (keyIndex >= 0){
+			/*
+			 * primary key with other qualifiers, deleted only if the record is unchanged since it matched
+			 */
+			long deleted = 0;
+			KeyRecord keyRecord = getMatching(stmt, keyIndex, qualifiers);
+			if (keyRecord != null){
+				try {
+					if (this.client.delete(generationPolicy(this.client.writePolicyDefault, keyRecord.record.generation), keyRecord.key))
+						deleted = 1;
+				} catch (AerospikeException e){
+					if (e.getResultCode() != ResultCode.GENERATION_ERROR)
+						throw e;
+					log.debug("Record changed since it was read " + keyRecord.key);
+				}
+			}
+			Map<String, Long> map = new HashMap<String, Long>();
+			map.put("read", (keyRecord == null) ? 0L : 1L);
+			map.put("write", deleted);
+			return map;
+		}
+		if (this.deleteStrategy == DeleteStrategy.SERVER && findMultiKey(qualifiers) < 0){
+			long started = System.currentTimeMillis();
+			ExecuteTask task = deleteOnServer(stmt, qualifiers);
+			task.waitTillComplete();
+			return jobCounts(stmt, started);
+		}
+		KeyRecordIterator results = select(stmt, true, null, qualifiers);
+		return delete(results, null);
+	}
+
+	/**
+	 * Deletes the records that match the Qualifiers on the server, with a background UDF,
+	 * in the same way as {@link #updateOnServer(Statement, List, Qualifier...)}
+	 * @param stmt A Statement object containing Namespace and Set 
+	 * @param qualifiers Zero or more Qualifiers for the delete query, primary key Qualifiers are not supported
+	 * @return the ExecuteTask of the background delete
+	 */
+	public ExecuteTask deleteOnServer(Statement stmt, Qualifier... qualifiers){
+		List<Value> filterArgs = new ArrayList<Value>();
+		String filterFuncStr = prepareBackground(stmt, filterArgs, qualifiers);
+		return client.execute(null, stmt, QUERY_MODULE, "delete_record", 
+				Value.get(filterFuncStr), Value.get(filterArgs));
+	}
+
+	/*
+	 * Deletes every record of the set, with the scan UDF or by the client
+	 */
+	private Map<String, Long> deleteAll(Statement stmt, boolean pipeline){
+		if (pipeline)
+			return delete(select(stmt, true, null), null);
+		long started = System.currentTimeMillis();
+		ExecuteTask task = client.execute(null, stmt, QUERY_MODULE, "delete_record");
+		task.waitTillComplete();
+		return jobCounts(stmt, started);
+	}
+
+	/*
+	 * Truncates the set, fails if the server does not support truncate
+	 */
+	private Map<String, Long> truncate(Statement stmt){
+		long started = System.currentTimeMillis();
+		long objects = getObjectCount(stmt.getNamespace(), stmt.getSetName());
+		client.truncate(this.infoPolicy, stmt.getNamespace(), stmt.getSetName(), null);
+		Map<String, Long> map = new HashMap<String, Long>();
+		map.put("objects", objects);
+		map.put("elapsedMillis", System.currentTimeMillis() - started);
+		return map;
+	}
+
+	private Map<String, Long> jobCounts(Statement stmt, long started){
+		Map<String, Long> map = getJobStatus(stmt);
+		long elapsed = System.currentTimeMillis() - started;
+		map.put("elapsedMillis", elapsed);
+		Long read = map.get("recs-read");
+		if (read != null && elapsed > 0)
+			map.put("recordsPerSecond", read * 1000 / elapsed);
+		return map;
+	}
+
+	/*
+	 * Deletes the matched records through a WritePipeline, each record only 
+	 * if its generation is unchanged since it was selected
+	 */
+	private Map<String, Long> delete(KeyRecordIterator results, Job job){
+		final WritePolicy basePolicy = this.client.writePolicyDefault;
+		final ThreadLocal<WritePolicy> policies = new ThreadLocal<WritePolicy>(){
+			@Override
+			protected WritePolicy initialValue() {
+				WritePolicy writePolicy = new WritePolicy(basePolicy);
+				writePolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
+				return writePolicy;
+			}
+		};
+		WritePipeline pipeline = newPipeline(results.getNamespace());
+		if (job != null)
+			job.setPipeline(pipeline);
+		long readCount = 0;
+		try {
+			while (results.hasNext()){
+				if (job != null && job.isCancelled())
+					break;
+				final KeyRecord keyRecord = results.next();
+				readCount++;
+				if (job != null)
+					job.recordRead();
+				pipeline.submit(new WritePipeline.Write() {
+					@Override
+					public boolean execute() throws AerospikeException {
+						WritePolicy writePolicy = policies.get();
+						writePolicy.generation = keyRecord.record.generation;
+						return client.delete(writePolicy, keyRecord.key);
+					}
+				});
+			}
+		} finally {
+			pipeline.await();
+			try {
+				results.close();
+			} catch (IOException e) {
+				log.debug("Error closing results", e);
+			}
+		}
+		Map<String, Long> map = pipeline.getCounts();
+		map.put("read", readCount);
+		return map;
+	}
+
+
+
+	private Map<String, Object> buildSortArguments(Map<String, String> sortMap) {
+		List<String> sortBins = new ArrayList<String>();
+		List<Integer> sortDescending = new ArrayList<Integer>();
+		if (sortMap != null){
+			for (Map.Entry<String, String> entry : sortMap.entrySet()){
+				sortBins.add(entry.getKey());
+				sortDescending.add(RecordComparator.isDescending(entry.getValue()) ? 1 : 0);
+			}
+		}
+		Map<String, Object> originArgs = new HashMap<String, Object>();
+		originArgs.put("sortBins", sortBins);
+		originArgs.put("sortDescending", sortDescending);
+		return originArgs;
+	}
+
+
+	/*
+	 * Builds the filter as a template, the qualifier values are added to filterArgs
+	 * so the same filter source, and its compiled function, is reused on the server
+	 */
+	private String buildFilterFunction(Qualifier[] qualifiers, List<Value> filterArgs) {
+		int count = 0;
+		StringBuilder sb = new StringBuilder("if ");
+		for (int i = 0; i < qualifiers.length; i++){
+			if (qualifiers[i] == null) //Skip nulls
+				continue;
+			if (qualifiers[i] instanceof KeyQualifier) //Skip primary key -- should not happen
+				continue;
+			if (count > 0)
+				sb.append(" and ");
+
+			sb.append(qualifiers[i].luaFilterString(filterArgs));
+			count++;
+		}
+		sb.append(" then selectedRec = true end");
 		
 		if (count < 1) 
 			return "none";
@@ -518,6 +1838,197 @@ public class QueryEngine implements Closeable{
 			task.isDone();
 		//}
 	}
+	/**
+	 * Sets the ExecutorService used to read query results in parallel.
+	 * The QueryEngine does not shut down an ExecutorService supplied by the caller.
+	 * @param executor An ExecutorService
+	 */
+	public synchronized void setExecutor(ExecutorService executor){
+		if (this.ownsExecutor && this.executor != null)
+			this.executor.shutdown();
+		this.executor = executor;
+		this.ownsExecutor = false;
+	}
+	/**
+	 * Gets the ExecutorService used to read query results in parallel. 
+	 * If none has been set, a cached thread pool of daemon threads is created.
+	 * @return the current ExecutorService
+	 */
+	public synchronized ExecutorService getExecutor(){
+		if (this.executor == null){
+			this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger(0);
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "QueryEngine-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.ownsExecutor = true;
+		}
+		return this.executor;
+	}
+	/**
+	 * Sets the number of records buffered between the node readers and the consumer 
+	 * of a parallel select
+	 * @param mergeQueueCapacity the capacity in records
+	 */
+	public void setMergeQueueCapacity(int mergeQueueCapacity){
+		this.mergeQueueCapacity = mergeQueueCapacity;
+	}
+	/**
+	 * Enables read-ahead for the results of select. A background reader decodes up to 
+	 * <code>capacity</code> records, or <code>maxBytes</code> estimated bytes, ahead of the consumer.
+	 * @param capacity the maximum number of records read ahead, 0 disables read-ahead
+	 * @param maxBytes the maximum estimated size of the records read ahead, 0 for no limit
+	 */
+	public void setPrefetch(int capacity, long maxBytes){
+		this.prefetchCapacity = capacity;
+		this.prefetchMaxBytes = maxBytes;
+	}
+	/**
+	 * Sets the maximum number of digests held to intersect several indexed Qualifiers.
+	 * An indexed Qualifier estimated to match more records is applied by the Lua filter, and if the
+	 * most selective one matches more records, a single index query is used.
+	 * @param maxIntersectionSize the maximum number of digests, 0 to never intersect indexes
+	 */
+	public void setMaxIntersectionSize(int maxIntersectionSize){
+		this.maxIntersectionSize = maxIntersectionSize;
+	}
+	/**
+	 * Sets the number of Keys in each batch read
+	 * @param batchSize the number of Keys
+	 */
+	public void setBatchSize(int batchSize){
+		this.batchSize = batchSize;
+	}
+	/**
+	 * Sets the maximum number of writes in flight when several records are updated or deleted
+	 * @param writeWindow the number of writes, 1 writes one record at a time
+	 */
+	public void setWriteWindow(int writeWindow){
+		this.writeWindow = writeWindow;
+	}
+	/**
+	 * Adapts the number of writes in flight of bulk inserts, updates and deletes to the cluster, see {@link WriteThrottle}.
+	 * The window starts at the write window and is bounded by it, it decreases when the average write latency is above 
+	 * the target or the namespace is close to its high water mark, and increases otherwise.
+	 * @param targetLatencyMillis the average write latency above which fewer writes are in flight, 0 for a fixed window
+	 */
+	public void setThrottle(long targetLatencyMillis){
+		this.throttleLatency = targetLatencyMillis;
+	}
+	/**
+	 * Hedges and retries the reads of a single record by primary key, see {@link HedgedReader}. 
+	 * A read not answered after the percentile of the recent read latencies is sent again 
+	 * to the master or a replica, and the first answer wins.
+	 * @param percentile the percentile of the read latencies after which a read is hedged, e.g. 95.0, 0 to disable hedged reads
+	 * @param maxRetries the maximum number of retries of a read that fails with a transient error
+	 * @param backoffMillis the wait before the first retry in milliseconds, doubled on each retry
+	 */
+	public void setHedgedReads(double percentile, int maxRetries, long backoffMillis){
+		if (percentile <= 0)
+			this.hedgedReader = null;
+		else
+			this.hedgedReader = new HedgedReader(getExecutor(), this.client.readPolicyDefault, percentile, maxRetries, backoffMillis);
+	}
+	/**
+	 * @return the counts of the hedged reads, see {@link HedgedReader#getCounts()}, null if hedged reads are disabled
+	 */
+	public Map<String, Long> getHedgedReadCounts(){
+		HedgedReader reader = this.hedgedReader;
+		return (reader == null) ? null : reader.getCounts();
+	}
+	/*
+	 * Creates the WritePipeline of a bulk write, throttled if a target latency is set
+	 */
+	private WritePipeline newPipeline(String namespace){
+		WritePipeline pipeline = new WritePipeline(getExecutor(), this.writeWindow);
+		if (this.throttleLatency > 0 && namespace != null)
+			pipeline.setThrottle(new WriteThrottle(this.healthMonitor, namespace, this.throttleLatency, 
+					this.writeWindow, WriteThrottle.DEFAULT_MIN_WINDOW, this.writeWindow));
+		return pipeline;
+	}
+	/**
+	 * Creates a write-behind buffer that merges the writes to the same Key within a window, 
+	 * with the updatePolicy, the executor and the write window of this QueryEngine.
+	 * The caller closes the WriteCoalescer to flush it.
+	 * @param windowMillis the time writes are held to be merged, in milliseconds
+	 * @return a new WriteCoalescer
+	 */
+	public WriteCoalescer newWriteCoalescer(long windowMillis){
+		return newWriteCoalescer(this.updatePolicy, windowMillis);
+	}
+	/**
+	 * Creates a write-behind buffer that merges the writes to the same Key within a window, 
+	 * with the executor and the write window of this QueryEngine.
+	 * The caller closes the WriteCoalescer to flush it.
+	 * @param policy the WritePolicy of the writes, e.g. the insertPolicy to create records only
+	 * @param windowMillis the time writes are held to be merged, in milliseconds
+	 * @return a new WriteCoalescer
+	 */
+	public WriteCoalescer newWriteCoalescer(WritePolicy policy, long windowMillis){
+		return new WriteCoalescer(this.client, policy, getExecutor(), windowMillis, 
+				this.writeWindow, WriteCoalescer.DEFAULT_MAX_PENDING_KEYS);
+	}
+	/**
+	 * Sets how the records updated while a bulk update runs are retried. Each round re-reads the records 
+	 * that changed since they were selected with batch reads, and writes the ones that still match the Qualifiers, 
+	 * after waiting backoffMillis, doubled on each round, with a random jitter.
+	 * @param retries the maximum number of rounds, 0 to only count the conflicts
+	 * @param backoffMillis the wait before the first round in milliseconds
+	 */
+	public void setConflictRetries(int retries, long backoffMillis){
+		this.conflictRetries = retries;
+		this.conflictBackoff = backoffMillis;
+	}
+	/**
+	 * Sets the number of buckets of digests a Job is split into, a Job checkpoints after each bucket.
+	 * Each bucket queries, or scans, the whole set again, so the server reads about buckets times 
+	 * as many records as a single query, see {@link Job}.
+	 * @param buckets the number of buckets, 4 by default, the Job is not split with 1
+	 */
+	public void setJobBuckets(int buckets){
+		this.jobBuckets = buckets;
+	}
+	/**
+	 * Sets the set, in the namespace of the Statement, of the Job checkpoint records
+	 * @param checkpointSet the name of the set
+	 */
+	public void setCheckpointSet(String checkpointSet){
+		this.checkpointSet = checkpointSet;
+	}
+	/**
+	 * Sets how the records matching a delete are deleted, {@link DeleteStrategy#AUTO} by default
+	 * @param deleteStrategy the DeleteStrategy
+	 */
+	public void setDeleteStrategy(DeleteStrategy deleteStrategy){
+		this.deleteStrategy = deleteStrategy;
+	}
+	/**
+	 * Sets whether Qualifiers with a native equivalent are evaluated as predicate expressions 
+	 * by the server, without Lua. Predicate expressions require Aerospike server 3.12 or later, 
+	 * they are only used when every node of the cluster supports them, see {@link #refreshServerFeatures()}.
+	 * @param usePredExp false to evaluate every Qualifier with the Lua filter
+	 */
+	public void setUsePredExp(boolean usePredExp){
+		this.usePredExp = usePredExp;
+	}
+	/**
+	 * @return true if Qualifiers are evaluated as predicate expressions when they can be
+	 */
+	public boolean isPredExpEnabled(){
+		return this.usePredExp && this.predExpSupported;
+	}
+	/**
+	 * Sets where the Qualifiers without an index or a predicate expression are evaluated, 
+	 * see {@link #useClientFilter(Statement, Qualifier[])}
+	 * @param filterMode the FilterMode
+	 */
+	public void setFilterMode(FilterMode filterMode){
+		this.filterMode = filterMode;
+	}
 	/**
 	 * Gets the current InfoPolicy
 	 * @return the current InfoPolicy
@@ -532,40 +2043,197 @@ public class QueryEngine implements Closeable{
 	 * refreshes the cached Cluster information
 	 */
 	public void refreshCluster(){
+		refreshServerFeatures();
 		refreshNamespaces();
 		refreshIndexes();
 		refreshModules();
+		startRefreshers();
 	}
 	/**
-	 * refreshes the cached Namespace information
+	 * Reads the build of every node, predicate expressions are only used if every node runs 
+	 * Aerospike server 3.12 or later. A node whose build cannot be read is assumed not to support them.
 	 */
-	public synchronized void refreshNamespaces(){
-		/*
-		 * cache namespaces
-		 */
-		if (this.namespaceCache == null){
-			this.namespaceCache = new TreeMap<String, Namespace>();
+	public void refreshServerFeatures(){
+		boolean supported = true;
+		Node[] nodes = client.getNodes();
+		for (Node node : nodes){
+			try {
+				String build = Info.request(getInfoPolicy(), node, "build");
+				if (!supportsPredExp(build))
+					supported = false;
+			} catch (AerospikeException e) {
+				log.error("Error geting the build of " + node, e);
+				supported = false;
+			}
+		}
+		if (!supported && this.usePredExp)
+			log.info("Predicate expressions are not supported by every node, Qualifiers use the Lua filter");
+		this.predExpSupported = supported;
+	}
+	/**
+	 * @param build the build of a node, e.g. "3.12.1"
+	 * @return true if the build is 3.12 or later
+	 */
+	static boolean supportsPredExp(String build){
+		if (build == null)
+			return false;
+		String[] parts = build.trim().split("[.\\-]");
+		if (parts.length < 2)
+			return false;
+		try {
+			int major = Integer.parseInt(parts[0]);
+			int minor = Integer.parseInt(parts[1]);
+			return major > 3 || (major == 3 && minor >= 12);
+		} catch (NumberFormatException e){
+			return false;
+		}
+	}
+	/**
+	 * refreshes the cached Namespace information. The namespaces and sets of every node are read in parallel, 
+	 * and merged into a new snapshot that replaces the current one. A node that does not answer within
+	 * the refresh timeout contributes the statistics it returned last.
+	 */
+	public void refreshNamespaces(){
+		synchronized (namespaceRefreshLock) {
 			Node[] nodes = client.getNodes();
-			for (Node node : nodes){
-				try {
-					String namespaceString = Info.request(getInfoPolicy(), node, "namespaces");
-					if (!namespaceString.isEmpty()){
-						String[] namespaceList = namespaceString.split(";");
-						for (String namespace : namespaceList){
-							Namespace ns = this.namespaceCache.get(namespace);
-							if (ns == null){
-								ns = new Namespace(namespace);
-								this.namespaceCache.put(namespace, ns);
-							}
-							refreshNamespaceData(node, ns);
-						}
+			List<Future<Map<String, String>>> futures = new ArrayList<Future<Map<String, String>>>(nodes.length);
+			for (final Node node : nodes){
+				futures.add(getExecutor().submit(new Callable<Map<String, String>>() {
+					@Override
+					public Map<String, String> call() throws Exception {
+						return readNamespaces(node);
 					}
-				} catch (AerospikeException e) {
-					log.error("Error geting Namespaces ", e);
-				}	
+				}));
+			}
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.namespaceRefreshTimeout);
+			List<Map<String, String>> nodeInfos = new ArrayList<Map<String, String>>(nodes.length);
+			Set<String> nodeNames = new HashSet<String>();
+			for (int i = 0; i < nodes.length; i++){
+				String nodeName = nodes[i].getName();
+				nodeNames.add(nodeName);
+				try {
+					Map<String, String> info = futures.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+					this.nodeNamespaceInfo.put(nodeName, info);
+				} catch (TimeoutException e) {
+					futures.get(i).cancel(true);
+					log.warn("Namespaces of " + nodes[i] + " not read within " + this.namespaceRefreshTimeout + " ms");
+				} catch (ExecutionException e) {
+					log.error("Error geting Namespaces ", e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				Map<String, String> info = this.nodeNamespaceInfo.get(nodeName);
+				if (info != null)
+					nodeInfos.add(info);
+			}
+			this.nodeNamespaceInfo.keySet().retainAll(nodeNames);
+			if (nodeInfos.isEmpty())
+				return;
+			this.namespaceCache.set(Collections.unmodifiableSortedMap(mergeNamespaces(nodeInfos)));
+			this.namespaceHealth.set(Collections.unmodifiableMap(namespaceHealth(nodeInfos)));
+		}
+	}
+
+	/*
+	 * Reads the namespaces of a node, then their statistics and sets with a single info request
+	 */
+	private Map<String, String> readNamespaces(Node node){
+		String namespaceString = Info.request(getInfoPolicy(), node, "namespaces");
+		if (namespaceString.isEmpty())
+			return Collections.singletonMap("namespaces", namespaceString);
+		String[] namespaceList = namespaceString.split(";");
+		String[] commands = new String[namespaceList.length * 2];
+		for (int i = 0; i < namespaceList.length; i++){
+			commands[i * 2] = "namespace/" + namespaceList[i];
+			commands[i * 2 + 1] = "sets/" + namespaceList[i];
+		}
+		Map<String, String> info = new HashMap<String, String>(Info.request(getInfoPolicy(), node, commands));
+		info.put("namespaces", namespaceString);
+		return info;
+	}
+
+	/**
+	 * Merges the namespaces read from each node into new Namespace objects, the counters are summed across the nodes
+	 * @param nodeInfos the "namespaces", "namespace/&lt;namespace&gt;" and "sets/&lt;namespace&gt;" info of each node
+	 * @return the Namespaces by name
+	 */
+	static TreeMap<String, Namespace> mergeNamespaces(Collection<Map<String, String>> nodeInfos){
+		TreeMap<String, Namespace> namespaces = new TreeMap<String, Namespace>();
+		for (Map<String, String> info : nodeInfos){
+			String namespaceString = info.get("namespaces");
+			if (namespaceString == null || namespaceString.isEmpty())
+				continue;
+			for (String namespace : namespaceString.split(";")){
+				Namespace ns = namespaces.get(namespace);
+				if (ns == null){
+					ns = new Namespace(namespace);
+					namespaces.put(namespace, ns);
+				}
+				String nameSpaceString = info.get("namespace/" + namespace);
+				if (nameSpaceString != null)
+					ns.mergeNamespaceInfo(nameSpaceString);
+				String setsString = info.get("sets/" + namespace);
+				if (setsString != null && !setsString.isEmpty()){
+					for (String setData : setsString.split(";"))
+						ns.mergeSet(setData);
+				}
+			}
+		}
+		return namespaces;
+	}
 
+	/**
+	 * Evaluates the health of each namespace on its worst node, see {@link WriteThrottle#health(Namespace)}
+	 * @param nodeInfos the "namespaces" and "namespace/&lt;namespace&gt;" info of each node
+	 * @return the Health by namespace
+	 */
+	static Map<String, WriteThrottle.Health> namespaceHealth(Collection<Map<String, String>> nodeInfos){
+		Map<String, WriteThrottle.Health> health = new HashMap<String, WriteThrottle.Health>();
+		for (Map<String, String> info : nodeInfos){
+			String namespaceString = info.get("namespaces");
+			if (namespaceString == null || namespaceString.isEmpty())
+				continue;
+			for (String namespace : namespaceString.split(";")){
+				String nameSpaceString = info.get("namespace/" + namespace);
+				if (nameSpaceString == null)
+					continue;
+				Namespace nodeNamespace = new Namespace(namespace);
+				nodeNamespace.setNamespaceInfo(nameSpaceString);
+				WriteThrottle.Health nodeHealth = WriteThrottle.health(nodeNamespace);
+				WriteThrottle.Health worst = health.get(namespace);
+				if (worst == null || nodeHealth.compareTo(worst) > 0)
+					health.put(namespace, nodeHealth);
 			}
 		}
+		return health;
+	}
+
+	/**
+	 * Gets the health of a namespace on its worst node, from the last refresh of the Namespace cache
+	 * @param namespace the namespace
+	 * @return the Health, null if it is not known
+	 */
+	public WriteThrottle.Health getNamespaceHealth(String namespace){
+		return this.namespaceHealth.get().get(namespace);
+	}
+
+	/**
+	 * Sets the interval of the background refresh of the Namespace cache, so the object counts used 
+	 * to plan the queries follow the cluster
+	 * @param refreshMillis the interval in milliseconds, 0 to only refresh with {@link #refreshNamespaces()}
+	 * @param timeoutMillis the time to wait for the nodes on each refresh, in milliseconds
+	 */
+	public void setNamespaceRefreshInterval(long refreshMillis, long timeoutMillis){
+		synchronized (this) {
+			this.namespaceRefreshMillis = refreshMillis;
+			this.namespaceRefreshTimeout = timeoutMillis;
+			if (this.namespaceRefresh != null)
+				this.namespaceRefresh.cancel(false);
+			this.namespaceRefresh = null;
+		}
+		if (this.client != null)
+			startRefreshers();
 	}
 
 	public void refreshNamespaceData(Node node, Namespace namespace){
@@ -573,9 +2241,9 @@ public class QueryEngine implements Closeable{
 		 * refresh namespace data
 		 */
 		try {
-			String nameSpaceString = Info.request(infoPolicy, node, "namespace/"+namespace);
+			String nameSpaceString = Info.request(getInfoPolicy(), node, "namespace/"+namespace);
 			namespace.mergeNamespaceInfo(nameSpaceString);
-			String setsString = Info.request(infoPolicy, node, "sets/"+namespace);
+			String setsString = Info.request(getInfoPolicy(), node, "sets/"+namespace);
 			if (!setsString.isEmpty()){
 				String[] sets = setsString.split(";");
 				for (String setData : sets) {
@@ -592,64 +2260,168 @@ public class QueryEngine implements Closeable{
 	 * @return The Namespace model object
 	 */
 	public Namespace getNamespace(String namespace) {
-		return namespaceCache.get(namespace);
+		return namespaceCache.get().get(namespace);
 	}
 	/**
 	 * Gets all the Namespaces from the cache
 	 * @return A collection of Namespace model objects
 	 */
 	public Collection<Namespace> getNamespaces() {
-		return namespaceCache.values();
+		return namespaceCache.get().values();
 	}
 
 	/**
-	 * refreshes the Index cacge from the Cluster
+	 * refreshes the Index cache from the Cluster. The indexes are read from the first active node,
+	 * and their statistics from every node, then a new IndexCache snapshot replaces the current one.
+	 * The current snapshot is kept if the indexes cannot be read.
 	 */
-	public synchronized void refreshIndexes(){
-		/*
-		 * cache index by Bin name
-		 */
-		if (this.indexCache == null)
-			this.indexCache = new TreeMap<String, Set<Index>>();
+	public void refreshIndexes(){
+		synchronized (indexRefreshLock) {
+			List<Index> indexes = null;
+			Node[] nodes = client.getNodes();
+			for (Node node : nodes){
+				if (node.isActive()) {
+					try {
+						String indexString = Info.request(getInfoPolicy(), node, "sindex");
+						indexes = new ArrayList<Index>();
+						if (!indexString.isEmpty()){
+							String[] indexList = indexString.split(";");
+							for (String oneIndexString : indexList){
+								Index index = new Index(oneIndexString);
+								if (!indexes.contains(index))
+									indexes.add(index);
+							}
+						}
+						break;
+					} catch (AerospikeException e) {
+						log.error("Error geting Index informaton", e);
+					}	
+				}
+			}
+			if (indexes == null)
+				return;
+			refreshIndexStats(nodes, indexes);
+			this.indexCache.set(new IndexCache(indexes));
+		}
+	}
 
-		Node[] nodes = client.getNodes();
-		for (Node node : nodes){
-			if (node.isActive()) {
+	/**
+	 * refreshes the statistics of the cached Indexes from every node in the Cluster. 
+	 * The statistics are used to choose the most selective Index for a query.
+	 * The indexes are read again, so the snapshot is never modified, see {@link #refreshIndexes()}.
+	 */
+	public void refreshIndexStats(){
+		refreshIndexes();
+	}
+
+	private void refreshIndexStats(Node[] nodes, List<Index> indexes){
+		for (Index index : indexes){
+			for (Node node : nodes){
+				if (!node.isActive())
+					continue;
 				try {
-					String indexString = Info.request(getInfoPolicy(), node, "sindex");
-					if (!indexString.isEmpty()){
-						String[] indexList = indexString.split(";");
-						for (String oneIndexString : indexList){
-							Index index = new Index(oneIndexString);	
-							addToCache(index);
-						}
-					}
-					break;
+					String statsString = Info.request(getInfoPolicy(), node, "sindex/" + index.getNamespace() + "/" + index.getName());
+					index.mergeIndexStats(statsString);
 				} catch (AerospikeException e) {
-					log.error("Error geting Index informaton", e);
-				}	
+					log.error("Error geting Index statistics", e);
+				}
 			}
 		}
 	}
 
-	private synchronized void addToCache(Index index){
-		String indexBin = index.getBin();
-		Set<Index> binSet = null;
-		if (this.indexCache.containsKey(indexBin)) {
-			binSet = this.indexCache.get(indexBin);
-		} else {
-			binSet = new HashSet<Index>();
+	/**
+	 * Sets the interval of the background refresh of the Index cache, so indexes created 
+	 * or dropped after the QueryEngine is created are seen by the queries.
+	 * @param refreshMillis the interval in milliseconds, 0 to only refresh with {@link #refreshIndexes()}
+	 */
+	public void setIndexRefreshInterval(long refreshMillis){
+		synchronized (this) {
+			this.indexRefreshMillis = refreshMillis;
+			if (this.indexRefresh != null)
+				this.indexRefresh.cancel(false);
+			this.indexRefresh = null;
+		}
+		if (this.client != null)
+			startRefreshers();
+	}
+
+	/*
+	 * Schedules the background refresh of the indexes and the namespaces, on a single daemon thread
+	 */
+	private synchronized void startRefreshers(){
+		if (this.indexRefresh == null && this.indexRefreshMillis > 0){
+			this.indexRefresh = scheduleRefresh(new Runnable() {
+				@Override
+				public void run() {
+					refreshIndexes();
+				}
+			}, this.indexRefreshMillis);
+		}
+		if (this.namespaceRefresh == null && this.namespaceRefreshMillis > 0){
+			this.namespaceRefresh = scheduleRefresh(new Runnable() {
+				@Override
+				public void run() {
+					refreshNamespaces();
+				}
+			}, this.namespaceRefreshMillis);
+		}
+	}
+
+	private ScheduledFuture<?> scheduleRefresh(final Runnable refresh, long refreshMillis){
+		if (this.refresher == null){
+			this.refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "QueryEngine-Refresher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
 		}
-		binSet.add(index);
-		this.indexCache.put(indexBin, binSet);
+		return this.refresher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refresh.run();
+				} catch (RuntimeException e) {
+					log.error("Cluster refresh failed", e);
+				}
+			}
+		}, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized void stopRefreshers(){
+		if (this.refresher != null)
+			this.refresher.shutdownNow();
+		this.refresher = null;
+		this.indexRefresh = null;
+		this.namespaceRefresh = null;
+	}
+
+	/**
+	 * Gets the current snapshot of the Index cache
+	 * @return the IndexCache
+	 */
+	public IndexCache getIndexCache(){
+		return this.indexCache.get();
+	}
+	/**
+	 * Gets the indexes on a Bin from the index cache, in every namespace and set
+	 * @param binName The name of the indexed Bin
+	 * @return A Set of Index model objects, null if the Bin is not indexed
+	 */
+	public Set<Index> getIndex(String binName){
+		return this.indexCache.get().getByBin(binName);
 	}
 	/**
-	 * Gets a specific index from the index cache by Bin name
+	 * Gets the Index a query on a Bin of a namespace and set uses
+	 * @param namespace The namespace
+	 * @param set The set, may be null
 	 * @param binName The name of the indexed Bin
-	 * @return An Index model object
+	 * @return An Index model object, null if the Bin is not indexed
 	 */
-	public synchronized Set<Index> getIndex(String binName){
-		return this.indexCache.get(binName);
+	public Index getIndex(String namespace, String set, String binName){
+		return this.indexCache.get().find(namespace, set, binName, null);
 	}
 	/**
 	 * refreshes the Module cache from the cluster. The Module cache contains a list of register UDF modules.
@@ -698,13 +2470,16 @@ public class QueryEngine implements Closeable{
 	public void close() throws IOException {
 		if (this.client != null)
 			this.client.close();
-		indexCache.clear();
-		indexCache = null;
+		stopRefreshers();
+		indexCache.set(IndexCache.EMPTY);
 		updatePolicy = null;
 		insertPolicy = null;
 		infoPolicy = null;
 		moduleCache.clear();
 		moduleCache = null;
+		if (ownsExecutor && executor != null)
+			executor.shutdownNow();
+		executor = null;
 	}
 
 
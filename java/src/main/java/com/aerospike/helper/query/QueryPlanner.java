@@ -0,0 +1,101 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import com.aerospike.helper.model.Index;
+import com.aerospike.helper.query.Qualifier.FilterOperation;
+/**
+ * Estimates how many records a secondary index query returns for a Qualifier,
+ * so the most selective indexed Qualifier can be used as the query Filter.
+ * <p>
+ * With index statistics, an equality matches entries/keys records, the average number
+ * of records per indexed value. Without statistics, a default selectivity is applied
+ * to the number of objects in the set.
+ * @author peter
+ *
+ */
+class QueryPlanner {
+	static final double DEFAULT_EQ_SELECTIVITY = 0.1;
+	static final double DEFAULT_RANGE_SELECTIVITY = 0.3;
+	static final double DEFAULT_SELECTIVITY = 0.5;
+
+	private QueryPlanner() {
+	}
+
+	/**
+	 * Estimates the number of records returned by an index query
+	 * @param qualifier the indexed Qualifier
+	 * @param index the Index used by the query, may be null
+	 * @param objects the number of objects in the set, 0 if it is not known
+	 * @return the estimated number of records, Double.MAX_VALUE times the selectivity if nothing is known
+	 */
+	static double estimate(Qualifier qualifier, Index index, long objects){
+		boolean range = isRange(qualifier.getOperation());
+		if (index != null && index.hasStats()){
+			if (range)
+				return index.getEntries() * DEFAULT_RANGE_SELECTIVITY;
+			if (index.getKeys() == 0)
+				return 0;
+			return (double) index.getEntries() / index.getKeys();
+		}
+		double selectivity = range ? DEFAULT_RANGE_SELECTIVITY : DEFAULT_EQ_SELECTIVITY;
+		if (objects > 0)
+			return objects * selectivity;
+		return Double.MAX_VALUE * selectivity;
+	}
+
+	/**
+	 * Estimates the fraction of the records matching a Qualifier evaluated without an index
+	 * @param qualifier the Qualifier
+	 * @return the estimated fraction of the records, between 0 and 1
+	 */
+	static double selectivity(Qualifier qualifier){
+		FilterOperation operation = qualifier.getOperation();
+		switch (operation){
+		case EQ:
+		case LIST_CONTAINS:
+		case MAP_KEYS_CONTAINS:
+		case MAP_VALUES_CONTAINS:
+			return DEFAULT_EQ_SELECTIVITY;
+		case NOTEQ:
+			return 1.0 - DEFAULT_EQ_SELECTIVITY;
+		case IN:
+		case OR:
+			double selectivity = 0;
+			for (Qualifier branch : qualifier.getBranches())
+				selectivity += selectivity(branch);
+			return Math.min(1.0, selectivity);
+		default:
+			return isRange(operation) ? DEFAULT_RANGE_SELECTIVITY : DEFAULT_SELECTIVITY;
+		}
+	}
+
+	static boolean isRange(FilterOperation operation){
+		switch (operation){
+		case BETWEEN:
+		case LIST_BETWEEN:
+		case MAP_KEYS_BETWEEN:
+		case MAP_VALUES_BETWEEN:
+		case GT:
+		case GTEQ:
+		case LT:
+		case LTEQ:
+			return true;
+		default:
+			return false;
+		}
+	}
+}
@@ -0,0 +1,219 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.query.KeyRecord;
+/**
+ * Bounded ring buffer between one or more threads reading
+ * query results and the thread consuming a KeyRecordIterator.
+ * <p>
+ * The buffer is bounded by a number of records and, optionally, by the
+ * estimated size in bytes of the buffered records. Producers block when
+ * the buffer is full, the consumer blocks when it is empty.
+ * Once every producer has finished, the consumer sees the end of the stream.
+ * @author peter
+ *
+ */
+class RecordBuffer {
+	private static final int RECORD_OVERHEAD = 64;
+	private static final int VALUE_OVERHEAD = 16;
+
+	private final KeyRecord[] ring;
+	private final long[] sizes;
+	private final long maxBytes;
+	private int head = 0;
+	private int count = 0;
+	private long bytes = 0;
+	private int producers;
+	private boolean closed = false;
+	private RuntimeException failure;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	RecordBuffer(int capacity, int producers) {
+		this(capacity, 0, producers);
+	}
+
+	/**
+	 * @param capacity the maximum number of buffered records
+	 * @param maxBytes the maximum estimated size of the buffered records, 0 for no limit
+	 * @param producers the number of producers writing to the buffer
+	 */
+	RecordBuffer(int capacity, long maxBytes, int producers) {
+		super();
+		this.ring = new KeyRecord[Math.max(1, capacity)];
+		this.sizes = new long[this.ring.length];
+		this.maxBytes = maxBytes;
+		this.producers = producers;
+	}
+
+	/**
+	 * Adds a record, waiting for space if the buffer is full.
+	 * A record is always accepted by an empty buffer, whatever its size.
+	 * @param keyRecord the record to add
+	 * @return false if the buffer was closed and the producer should stop
+	 * @throws InterruptedException if the producer thread is interrupted
+	 */
+	boolean put(KeyRecord keyRecord) throws InterruptedException {
+		long size = (maxBytes > 0) ? estimateSize(keyRecord) : 0;
+		lock.lockInterruptibly();
+		try {
+			while (!closed && (count == ring.length || (count > 0 && maxBytes > 0 && bytes + size > maxBytes)))
+				notFull.await();
+			if (closed)
+				return false;
+			int tail = (head + count) % ring.length;
+			ring[tail] = keyRecord;
+			sizes[tail] = size;
+			count++;
+			bytes += size;
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Called by each producer when it has no more records.
+	 */
+	void producerDone(){
+		lock.lock();
+		try {
+			producers--;
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Records a producer failure, it is rethrown to the consumer.
+	 * @param e the failure
+	 */
+	void fail(RuntimeException e){
+		lock.lock();
+		try {
+			if (failure == null)
+				failure = e;
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the next record, waiting for one to be available.
+	 * @return the next record, or null at the end of the stream
+	 */
+	KeyRecord take(){
+		try {
+			lock.lockInterruptibly();
+			try {
+				while (count == 0 && producers > 0 && !closed && failure == null)
+					notEmpty.await();
+				if (failure != null)
+					throw failure;
+				if (count == 0)
+					return null;
+				KeyRecord keyRecord = ring[head];
+				ring[head] = null;
+				bytes -= sizes[head];
+				head = (head + 1) % ring.length;
+				count--;
+				notFull.signal();
+				return keyRecord;
+			} finally {
+				lock.unlock();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AerospikeException(e);
+		}
+	}
+
+	boolean isClosed(){
+		lock.lock();
+		try {
+			return closed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Discards any buffered records and releases blocked producers.
+	 */
+	void close(){
+		lock.lock();
+		try {
+			closed = true;
+			for (int i = 0; i < ring.length; i++)
+				ring[i] = null;
+			count = 0;
+			bytes = 0;
+			notFull.signalAll();
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Estimates the heap used by a record, it is used to bound the buffer by size, not to account memory exactly.
+	 * @param keyRecord the record
+	 * @return the estimated size in bytes
+	 */
+	static long estimateSize(KeyRecord keyRecord){
+		long size = RECORD_OVERHEAD;
+		if (keyRecord.record != null && keyRecord.record.bins != null){
+			for (Map.Entry<String, Object> bin : keyRecord.record.bins.entrySet()){
+				size += VALUE_OVERHEAD + 2 * bin.getKey().length() + estimateSize(bin.getValue());
+			}
+		}
+		return size;
+	}
+
+	private static long estimateSize(Object value){
+		if (value == null)
+			return 0;
+		if (value instanceof String)
+			return 2 * ((String) value).length();
+		if (value instanceof byte[])
+			return ((byte[]) value).length;
+		if (value instanceof List){
+			long size = 0;
+			for (Object element : (List<?>) value)
+				size += VALUE_OVERHEAD + estimateSize(element);
+			return size;
+		}
+		if (value instanceof Map){
+			long size = 0;
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+				size += 2 * VALUE_OVERHEAD + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+			return size;
+		}
+		return VALUE_OVERHEAD;
+	}
+}
@@ -0,0 +1,106 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.aerospike.client.query.KeyRecord;
+/**
+ * Orders KeyRecords by the bins of a sort map, in the same way 
+ * the select_records Lua function orders the partial results on each node.
+ * <p>
+ * Missing bins sort last in either direction. Values of different types are ordered by 
+ * their Lua type name, and values that cannot be compared, like maps and lists, are equal.
+ * @author peter
+ *
+ */
+class RecordComparator implements Comparator<KeyRecord> {
+	public static final String ASCENDING = "ASC";
+	public static final String DESCENDING = "DESC";
+
+	private String[] bins;
+	private boolean[] descending;
+
+	/**
+	 * @param sortMap A map of bin name to "ASC" or "DESC", iterated in order of precedence. May be null.
+	 */
+	RecordComparator(Map<String, String> sortMap) {
+		super();
+		List<String> binList = new ArrayList<String>();
+		List<Boolean> descendingList = new ArrayList<Boolean>();
+		if (sortMap != null){
+			for (Map.Entry<String, String> entry : sortMap.entrySet()){
+				binList.add(entry.getKey());
+				descendingList.add(isDescending(entry.getValue()));
+			}
+		}
+		this.bins = binList.toArray(new String[0]);
+		this.descending = new boolean[this.bins.length];
+		for (int i = 0; i < this.bins.length; i++)
+			this.descending[i] = descendingList.get(i);
+	}
+
+	static boolean isDescending(String direction){
+		return direction != null && 
+				(direction.equalsIgnoreCase(DESCENDING) || direction.equalsIgnoreCase("DESCENDING"));
+	}
+
+	@Override
+	public int compare(KeyRecord a, KeyRecord b) {
+		for (int i = 0; i < bins.length; i++){
+			Object x = a.record.getValue(bins[i]);
+			Object y = b.record.getValue(bins[i]);
+			if (x == null || y == null){
+				if (x != null)
+					return -1;
+				if (y != null)
+					return 1;
+				continue;
+			}
+			int c = compareValues(x, y);
+			if (c != 0)
+				return descending[i] ? -c : c;
+		}
+		return 0;
+	}
+
+	private static int compareValues(Object x, Object y){
+		String tx = luaType(x);
+		String ty = luaType(y);
+		if (!tx.equals(ty))
+			return tx.compareTo(ty);
+		if (x instanceof Long && y instanceof Long)
+			return ((Long) x).compareTo((Long) y);
+		if (x instanceof Number)
+			return Double.compare(((Number) x).doubleValue(), ((Number) y).doubleValue());
+		if (x instanceof String)
+			return ((String) x).compareTo((String) y);
+		return 0;
+	}
+
+	private static String luaType(Object value){
+		if (value instanceof Number)
+			return "number";
+		if (value instanceof String)
+			return "string";
+		if (value instanceof Boolean)
+			return "boolean";
+		return "userdata";
+	}
+}
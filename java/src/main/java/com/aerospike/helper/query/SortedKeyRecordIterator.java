@@ -0,0 +1,117 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.aerospike.client.query.KeyRecord;
+import com.aerospike.client.query.ResultSet;
+/**
+ * Iterator over the results of a sorted select. Each node returns its first results, 
+ * at most the offset plus the limit, as an unsorted heap. This iterator sorts each of them
+ * and does a k-way merge, releasing the records as they are returned, so the client holds 
+ * at most the offset plus the limit records per node.
+ * @author peter
+ *
+ */
+class SortedKeyRecordIterator extends KeyRecordIterator {
+	private ResultSet resultSet;
+	private Comparator<KeyRecord> comparator;
+	private PriorityQueue<Run> runs;
+
+	/**
+	 * @param namespace the namespace of the records
+	 * @param resultSet the ResultSet of the partial results of the nodes
+	 * @param comparator the order of the select, also used by the nodes to keep their first records
+	 */
+	SortedKeyRecordIterator(String namespace, ResultSet resultSet, Comparator<KeyRecord> comparator) {
+		super(namespace, resultSet);
+		this.resultSet = resultSet;
+		this.comparator = comparator;
+	}
+
+	/**
+	 * Reads the results of every node, the first record 
+	 * can only be known once all of them have arrived.
+	 */
+	@SuppressWarnings("unchecked")
+	private void loadRuns(){
+		runs = new PriorityQueue<Run>(11, new Comparator<Run>() {
+			@Override
+			public int compare(Run a, Run b) {
+				return comparator.compare(a.head(), b.head());
+			}
+		});
+		while (resultSet.next()){
+			Object result = resultSet.getObject();
+			List<KeyRecord> records = new ArrayList<KeyRecord>();
+			if (result instanceof List){
+				for (Object element : (List<Object>) result)
+					records.add(toKeyRecord((Map<String, Object>) element));
+			} else if (result instanceof Map) {
+				records.add(toKeyRecord((Map<String, Object>) result));
+			}
+			if (!records.isEmpty()){
+				Collections.sort(records, comparator);
+				runs.add(new Run(records));
+			}
+		}
+	}
+
+	@Override
+	protected boolean fetchHasNext() {
+		if (runs == null)
+			loadRuns();
+		return !runs.isEmpty();
+	}
+
+	@Override
+	protected KeyRecord fetchNext() {
+		if (!fetchHasNext())
+			return null;
+		Run run = runs.poll();
+		KeyRecord keyRecord = run.next();
+		if (run.hasNext())
+			runs.add(run);
+		return keyRecord;
+	}
+
+	/**
+	 * One sorted list of records
+	 */
+	private static class Run {
+		private List<KeyRecord> records;
+		private int position = 0;
+
+		Run(List<KeyRecord> records){
+			this.records = records;
+		}
+		KeyRecord head(){
+			return records.get(position);
+		}
+		boolean hasNext(){
+			return position < records.size();
+		}
+		KeyRecord next(){
+			return records.set(position++, null);
+		}
+	}
+}
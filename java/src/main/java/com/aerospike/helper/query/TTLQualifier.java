@@ -15,7 +15,12 @@
  */
 package com.aerospike.helper.query;
 
+import java.util.List;
+
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
 import com.aerospike.client.Value;
+import com.aerospike.client.query.PredExp;
 /**
  * Time to live qualifier - not necessary
  * @author peter
@@ -31,4 +36,13 @@ public class TTLQualifier extends Qualifier {
 		return "expiry";
 	}
 
+	@Override
+	protected Object fieldValue(Key key, Record record) {
+		return record.getTimeToLive();
+	}
+
+	@Override
+	protected boolean appendPredExp(List<PredExp> predExps) {
+		return false; // no predicate expression for the time to live
+	}
 }
@@ -0,0 +1,284 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import com.aerospike.client.AerospikeClient;
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.Bin;
+import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
+import com.aerospike.client.Value;
+import com.aerospike.client.policy.WritePolicy;
+/**
+ * Write-behind buffer that merges the writes to the same Key made within a window,
+ * and writes each Key with a single operate when the window ends.
+ * <p>
+ * A put replaces the pending Operations on the same Bins, so only the latest values
+ * are written, and consecutive integer adds to a Bin are summed. Other Operations are
+ * kept in order. Writes are not visible to readers until they are flushed,
+ * {@link #flush()} writes everything pending and {@link #close()} flushes and stops the buffer.
+ * The writes that fail are kept, with their Operations, until they are taken with {@link #takeFailedWrites()}.
+ * @author peter
+ *
+ */
+public class WriteCoalescer implements Closeable {
+	private static Logger log = Logger.getLogger(WriteCoalescer.class);
+
+	public static final long DEFAULT_WINDOW_MILLIS = 5;
+	public static final int DEFAULT_MAX_PENDING_KEYS = 10000;
+
+	private final AerospikeClient client;
+	private final WritePolicy policy;
+	private final ExecutorService executor;
+	private final int writeWindow;
+	private final int maxPendingKeys;
+	private final ScheduledExecutorService timer;
+
+	private final Object pendingLock = new Object();
+	private Map<Key, List<Operation>> pending = new LinkedHashMap<Key, List<Operation>>();
+	private Map<Key, List<Operation>> failedWrites = new LinkedHashMap<Key, List<Operation>>();
+	private final ReentrantLock flushLock = new ReentrantLock();
+	private boolean closed = false;
+
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong flushed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * @param client the AerospikeClient
+	 * @param policy the WritePolicy of the writes, e.g. the updatePolicy or the insertPolicy of the QueryEngine
+	 * @param executor the ExecutorService running the writes of a flush
+	 * @param windowMillis the time writes are held to be merged, in milliseconds
+	 * @param writeWindow the maximum number of writes in flight during a flush
+	 * @param maxPendingKeys the number of pending Keys that causes a write to flush immediately
+	 */
+	public WriteCoalescer(AerospikeClient client, WritePolicy policy, ExecutorService executor,
+			long windowMillis, int writeWindow, int maxPendingKeys) {
+		super();
+		this.client = client;
+		this.policy = policy;
+		this.executor = executor;
+		this.writeWindow = writeWindow;
+		this.maxPendingKeys = maxPendingKeys;
+		this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "WriteCoalescer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.timer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch (RuntimeException e) {
+					log.error("Flush failed", e);
+				}
+			}
+		}, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes the Bins to the record of the Key when the window ends
+	 * @param key the Key of the record
+	 * @param bins the Bins to write
+	 */
+	public void put(Key key, Bin... bins){
+		Operation[] operations = new Operation[bins.length];
+		for (int i = 0; i < bins.length; i++)
+			operations[i] = Operation.put(bins[i]);
+		operate(key, operations);
+	}
+
+	/**
+	 * Applies the Operations to the record of the Key when the window ends,
+	 * after the Operations written before for the same Key
+	 * @param key the Key of the record
+	 * @param operations the Operations, read Operations are not supported
+	 */
+	public void operate(Key key, Operation... operations){
+		int pendingKeys;
+		synchronized (pendingLock) {
+			if (closed)
+				throw new IllegalStateException("WriteCoalescer is closed");
+			received.addAndGet(operations.length);
+			List<Operation> keyOperations = pending.get(key);
+			if (keyOperations == null){
+				keyOperations = new ArrayList<Operation>();
+				pending.put(key, keyOperations);
+			}
+			merge(keyOperations, operations);
+			pendingKeys = pending.size();
+		}
+		if (pendingKeys >= maxPendingKeys)
+			flush();
+	}
+
+	/*
+	 * Appends Operations to the pending Operations of a Key. A put removes the pending Operations
+	 * on its Bin, an integer add following an add on the same Bin is summed with it.
+	 */
+	static void merge(List<Operation> pending, Operation[] operations){
+		for (Operation operation : operations){
+			if (operation.type == Operation.Type.WRITE){
+				Iterator<Operation> it = pending.iterator();
+				while (it.hasNext()){
+					if (operation.binName.equals(it.next().binName))
+						it.remove();
+				}
+			} else if (operation.type == Operation.Type.ADD && operation.binName != null){
+				int last = lastOnBin(pending, operation.binName);
+				if (last >= 0 && pending.get(last).type == Operation.Type.ADD){
+					Object previous = pending.get(last).value.getObject();
+					Object value = operation.value.getObject();
+					if (isInteger(previous) && isInteger(value)){
+						long sum = ((Number) previous).longValue() + ((Number) value).longValue();
+						pending.set(last, new Operation(Operation.Type.ADD, operation.binName, Value.get(sum)));
+						continue;
+					}
+				}
+			}
+			pending.add(operation);
+		}
+	}
+
+	private static int lastOnBin(List<Operation> pending, String binName){
+		for (int i = pending.size() - 1; i >= 0; i--){
+			if (binName.equals(pending.get(i).binName))
+				return i;
+		}
+		return -1;
+	}
+
+	private static boolean isInteger(Object value){
+		return value instanceof Long || value instanceof Integer;
+	}
+
+	/**
+	 * Writes every pending Key, one operate per Key, and waits for the writes to complete
+	 */
+	public void flush(){
+		flushLock.lock();
+		try {
+			Map<Key, List<Operation>> writes;
+			synchronized (pendingLock) {
+				if (pending.isEmpty())
+					return;
+				writes = pending;
+				pending = new LinkedHashMap<Key, List<Operation>>();
+			}
+			WritePipeline pipeline = new WritePipeline(executor, writeWindow);
+			for (Map.Entry<Key, List<Operation>> entry : writes.entrySet()){
+				final Key key = entry.getKey();
+				final Operation[] operations = entry.getValue().toArray(new Operation[entry.getValue().size()]);
+				pipeline.submit(new WritePipeline.Write() {
+					@Override
+					public boolean execute() throws AerospikeException {
+						try {
+							client.operate(policy, key, operations);
+						} catch (RuntimeException e) {
+							addFailed(key, operations);
+							throw e;
+						}
+						return true;
+					}
+				});
+			}
+			pipeline.await();
+			flushed.addAndGet(pipeline.getWritten());
+			failed.addAndGet(pipeline.getFailed() + pipeline.getConflicts());
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	private void addFailed(Key key, Operation[] operations){
+		synchronized (pendingLock) {
+			List<Operation> keyOperations = failedWrites.get(key);
+			if (keyOperations == null){
+				keyOperations = new ArrayList<Operation>();
+				failedWrites.put(key, keyOperations);
+			}
+			keyOperations.addAll(Arrays.asList(operations));
+		}
+	}
+
+	/**
+	 * Takes the writes that failed since the previous call, so they can be written again,
+	 * e.g. with {@link #operate(Key, Operation...)}. They are kept until they are taken.
+	 * @return the merged Operations of each Key that failed, in the order they were flushed, empty if none failed
+	 */
+	public Map<Key, List<Operation>> takeFailedWrites(){
+		synchronized (pendingLock) {
+			Map<Key, List<Operation>> failures = failedWrites;
+			failedWrites = new LinkedHashMap<Key, List<Operation>>();
+			return failures;
+		}
+	}
+
+	/**
+	 * Gets the counts of the buffer: "received" the Operations written to the buffer,
+	 * "flushed" the operate calls that succeeded, "failed" those that failed, and "pending" the Keys not yet written
+	 * @return a Map of the counts
+	 */
+	public Map<String, Long> getCounts(){
+		Map<String, Long> counts = new HashMap<String, Long>();
+		counts.put("received", received.get());
+		counts.put("flushed", flushed.get());
+		counts.put("failed", failed.get());
+		synchronized (pendingLock) {
+			counts.put("pending", (long) pending.size());
+		}
+		return counts;
+	}
+
+	/**
+	 * Stops the timer and flushes the pending writes, the buffer cannot be used after it is closed
+	 */
+	@Override
+	public void close() {
+		synchronized (pendingLock) {
+			closed = true;
+		}
+		timer.shutdown();
+		try {
+			timer.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+	}
+}
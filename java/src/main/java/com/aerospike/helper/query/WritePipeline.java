@@ -0,0 +1,241 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.ResultCode;
+/**
+ * Runs writes on an ExecutorService with a bounded number of writes in flight,
+ * so the round trips of several writes overlap instead of running one after the other.
+ * <p>
+ * {@link #submit(Write)} blocks while the window is full. The window can be changed
+ * while writes are in flight. Each write is counted as written, not written
+ * (e.g. a delete of a missing record), a generation conflict or a failure.
+ * A {@link WriteThrottle} can adapt the window to the latency of the writes.
+ * @author peter
+ *
+ */
+public class WritePipeline {
+	private static Logger log = Logger.getLogger(WritePipeline.class);
+
+	public static final int DEFAULT_WINDOW = 64;
+
+	/**
+	 * A write run by the pipeline
+	 */
+	public interface Write {
+		/**
+		 * @return true if the record was written
+		 * @throws AerospikeException a GENERATION_ERROR is counted as a conflict, anything else as a failure
+		 */
+		boolean execute() throws AerospikeException;
+	}
+
+	private final ExecutorService executor;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private int window;
+	private int inFlight = 0;
+	private volatile WriteThrottle throttle;
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong notWritten = new AtomicLong();
+	private final AtomicLong conflicts = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final long started = System.currentTimeMillis();
+
+	/**
+	 * @param executor the ExecutorService running the writes
+	 * @param window the maximum number of writes in flight
+	 */
+	public WritePipeline(ExecutorService executor, int window) {
+		super();
+		this.executor = executor;
+		this.window = Math.max(1, window);
+	}
+
+	/**
+	 * Submits a write, waiting while the window is full
+	 * @param write the write
+	 */
+	public void submit(final Write write){
+		lock.lock();
+		try {
+			while (inFlight >= window)
+				changed.await();
+			inFlight++;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AerospikeException(e);
+		} finally {
+			lock.unlock();
+		}
+		submitted.incrementAndGet();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						execute(write);
+					} finally {
+						done();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			failed.incrementAndGet();
+			done();
+			throw e;
+		}
+	}
+
+	private void execute(Write write){
+		long start = System.nanoTime();
+		int resultCode = ResultCode.OK;
+		try {
+			if (write.execute())
+				written.incrementAndGet();
+			else
+				notWritten.incrementAndGet();
+		} catch (AerospikeException e) {
+			resultCode = e.getResultCode();
+			if (resultCode == ResultCode.GENERATION_ERROR){
+				conflicts.incrementAndGet();
+			} else {
+				failed.incrementAndGet();
+				log.error("Write failed", e);
+			}
+		} catch (RuntimeException e) {
+			failed.incrementAndGet();
+			log.error("Write failed", e);
+		}
+		WriteThrottle current = throttle;
+		if (current != null){
+			int newWindow = current.onWrite(System.nanoTime() - start, resultCode);
+			if (newWindow != getWindow())
+				setWindow(newWindow);
+			current.pauseIfStopped();
+		}
+	}
+
+	private void done(){
+		lock.lock();
+		try {
+			inFlight--;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits for every submitted write to complete
+	 */
+	public void await(){
+		lock.lock();
+		try {
+			while (inFlight > 0)
+				changed.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AerospikeException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Changes the maximum number of writes in flight, it applies to the next submitted write
+	 * @param window the maximum number of writes in flight
+	 */
+	public void setWindow(int window){
+		lock.lock();
+		try {
+			this.window = Math.max(1, window);
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adapts the window to the latency of the writes and the health of the cluster
+	 * @param throttle the WriteThrottle, null for a fixed window
+	 */
+	public void setThrottle(WriteThrottle throttle){
+		this.throttle = throttle;
+		if (throttle != null)
+			setWindow(throttle.getWindow());
+	}
+
+	public WriteThrottle getThrottle(){
+		return throttle;
+	}
+
+	public int getWindow(){
+		lock.lock();
+		try {
+			return window;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getSubmitted(){
+		return submitted.get();
+	}
+
+	public long getWritten(){
+		return written.get();
+	}
+
+	public long getConflicts(){
+		return conflicts.get();
+	}
+
+	public long getFailed(){
+		return failed.get();
+	}
+
+	/**
+	 * Gets the counts of the pipeline: "write", "conflict", "failed", "notWritten"
+	 * for the writes that completed without writing, "elapsedMillis" since the pipeline was created 
+	 * and "recordsPerSecond"
+	 * @return a Map of the counts
+	 */
+	public Map<String, Long> getCounts(){
+		Map<String, Long> counts = new HashMap<String, Long>();
+		counts.put("write", written.get());
+		counts.put("notWritten", notWritten.get());
+		counts.put("conflict", conflicts.get());
+		counts.put("failed", failed.get());
+		long elapsed = System.currentTimeMillis() - started;
+		counts.put("elapsedMillis", elapsed);
+		if (elapsed > 0)
+			counts.put("recordsPerSecond", (written.get() + notWritten.get() + conflicts.get() + failed.get()) * 1000 / elapsed);
+		return counts;
+	}
+}
@@ -0,0 +1,201 @@
+/* Copyright 2012-2016 Aerospike, Inc.
+ *
+ * Portions may be licensed to Aerospike, Inc. under one or more contributor
+ * license agreements.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.aerospike.helper.query;
+
+import org.apache.log4j.Logger;
+
+import com.aerospike.client.ResultCode;
+import com.aerospike.helper.model.Namespace;
+/**
+ * Adapts the number of writes in flight of a {@link WritePipeline} with additive increase,
+ * multiplicative decrease (AIMD).
+ * <p>
+ * After each sample of writes, the window grows by one write while the average latency is below
+ * the target, and is halved when it is above, or when writes fail because the cluster is overloaded.
+ * The health of the namespace, on its worst node, is read from a {@link HealthMonitor}: the window is halved 
+ * when the free memory is close to the high water mark, drops to the minimum when a node evicts records,
+ * and the writes pause while a node stops writes. The monitor is refreshed in the background,
+ * so the writers never wait for the cluster statistics.
+ * @author peter
+ *
+ */
+public class WriteThrottle {
+	private static Logger log = Logger.getLogger(WriteThrottle.class);
+
+	public static final long DEFAULT_TARGET_LATENCY_MILLIS = 10;
+	public static final int DEFAULT_MIN_WINDOW = 1;
+	public static final int DEFAULT_MAX_WINDOW = 256;
+	public static final long STOP_WRITES_PAUSE_MILLIS = 1000;
+	public static final long MEMORY_MARGIN_PCT = 5;
+	static final double DECREASE_FACTOR = 0.5;
+	static final int MAX_SAMPLE_SIZE = 32;
+
+	/**
+	 * The health of a namespace, from the best to the worst
+	 */
+	public enum Health {
+		OK,
+		/** the free memory is within MEMORY_MARGIN_PCT of the high water mark */
+		NEAR_HWM,
+		/** a node is above the high water mark and evicts records */
+		HWM_BREACHED,
+		/** a node rejects writes */
+		STOP_WRITES
+	}
+
+	/**
+	 * Supplies the current health of the namespaces, without blocking
+	 */
+	public interface HealthMonitor {
+		/**
+		 * @param namespace the namespace
+		 * @return the Health of the namespace on its worst node, OK if it is not known
+		 */
+		Health getHealth(String namespace);
+	}
+
+	private final HealthMonitor monitor;
+	private final String namespace;
+	private final long targetLatencyNanos;
+	private final int minWindow;
+	private final int maxWindow;
+
+	private double window;
+	private int samples = 0;
+	private long latencySum = 0;
+	private int overloads = 0;
+	private volatile Health health = Health.OK;
+	private long increases = 0;
+	private long decreases = 0;
+
+	/**
+	 * @param monitor the HealthMonitor of the namespaces, null to ignore the health
+	 * @param namespace the namespace written
+	 * @param targetLatencyMillis the average write latency above which the window is decreased
+	 * @param initialWindow the initial number of writes in flight
+	 * @param minWindow the minimum number of writes in flight
+	 * @param maxWindow the maximum number of writes in flight
+	 */
+	public WriteThrottle(HealthMonitor monitor, String namespace, long targetLatencyMillis,
+			int initialWindow, int minWindow, int maxWindow) {
+		super();
+		this.monitor = monitor;
+		this.namespace = namespace;
+		this.targetLatencyNanos = targetLatencyMillis * 1000000L;
+		this.minWindow = Math.max(1, minWindow);
+		this.maxWindow = Math.max(this.minWindow, maxWindow);
+		this.window = Math.min(this.maxWindow, Math.max(this.minWindow, initialWindow));
+	}
+
+	/**
+	 * Records the outcome of a write and adjusts the window after each sample of writes
+	 * @param latencyNanos the duration of the write
+	 * @param resultCode the ResultCode of the write, ResultCode.OK if it succeeded
+	 * @return the new window
+	 */
+	public synchronized int onWrite(long latencyNanos, int resultCode){
+		samples++;
+		latencySum += latencyNanos;
+		if (isOverload(resultCode))
+			overloads++;
+		if (samples < Math.min(MAX_SAMPLE_SIZE, (int) window))
+			return (int) window;
+		long averageLatency = latencySum / samples;
+		Health current = (monitor == null) ? null : monitor.getHealth(namespace);
+		if (current == null)
+			current = Health.OK;
+		health = current;
+		if (current == Health.STOP_WRITES || current == Health.HWM_BREACHED){
+			decrease(minWindow);
+		} else if (current == Health.NEAR_HWM || overloads > 0 || averageLatency > targetLatencyNanos){
+			decrease(window * DECREASE_FACTOR);
+		} else if (window < maxWindow){
+			window = Math.min(maxWindow, window + 1);
+			increases++;
+		}
+		samples = 0;
+		latencySum = 0;
+		overloads = 0;
+		return (int) window;
+	}
+
+	private void decrease(double newWindow){
+		newWindow = Math.max(minWindow, newWindow);
+		if (newWindow < window){
+			decreases++;
+			if (log.isDebugEnabled())
+				log.debug("Write window of " + namespace + " decreased to " + (int) newWindow + ", health " + health);
+		}
+		window = newWindow;
+	}
+
+	static boolean isOverload(int resultCode){
+		switch (resultCode){
+		case ResultCode.TIMEOUT:
+		case ResultCode.KEY_BUSY:
+		case ResultCode.DEVICE_OVERLOAD:
+		case ResultCode.SERVER_MEM_ERROR:
+		case ResultCode.NO_MORE_CONNECTIONS:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Evaluates the health of the statistics of a namespace
+	 * @param namespace the Namespace of one node
+	 * @return the Health
+	 */
+	public static Health health(Namespace namespace){
+		if (namespace.isStopWrites())
+			return Health.STOP_WRITES;
+		if (namespace.isHwmBreached())
+			return Health.HWM_BREACHED;
+		if (namespace.getFreePctMemory() <= 100 - namespace.getHighWaterMemoryPct() + MEMORY_MARGIN_PCT)
+			return Health.NEAR_HWM;
+		return Health.OK;
+	}
+
+	/*
+	 * Pauses the calling writer while a node stops writes
+	 */
+	void pauseIfStopped(){
+		if (health != Health.STOP_WRITES)
+			return;
+		try {
+			Thread.sleep(STOP_WRITES_PAUSE_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public synchronized int getWindow(){
+		return (int) window;
+	}
+
+	public Health getHealth(){
+		return health;
+	}
+
+	public synchronized long getIncreases(){
+		return increases;
+	}
+
+	public synchronized long getDecreases(){
+		return decreases;
+	}
+}
@@ -101,7 +101,33 @@ function rangeKey(collection, low, high)
 end 
 
 
-local function filter_record(rec, filterFuncStr, filterFunc)
+-- Compiled filter functions keyed by their source. The filter source is a template,
+-- the values are passed in filterArgs, so queries that only differ by their values
+-- are compiled once per Lua state.
+local MAX_CACHED_FILTERS = 1000
+local filterCache = {}
+local cachedFilters = 0
+
+local function compileFilter(filterFuncStr)
+  if filterFuncStr == nil or filterFuncStr == "none" then
+    return nil
+  end
+  local filterFunc = filterCache[filterFuncStr]
+  if filterFunc == nil then
+    filterFunc = load(filterFuncStr)
+    if filterFunc ~= nil then
+      if cachedFilters >= MAX_CACHED_FILTERS then
+        filterCache = {}
+        cachedFilters = 0
+      end
+      filterCache[filterFuncStr] = filterFunc
+      cachedFilters = cachedFilters + 1
+    end
+  end
+  return filterFunc
+end
+
+local function filter_record(rec, filterFuncStr, filterFunc, filterArgs)
   -- dumpRecord(rec)
   -- if there is no filter, select all records
   if filterFuncStr == "none" then
@@ -112,6 +138,7 @@ local function filter_record(rec, filterFuncStr, filterFunc)
   -- if there was a filter specified, and was successfully compiled
   if filterFunc ~= nil then
     local context = {rec = rec, 
+                    args = filterArgs,
                     selectedRec = false, 
                     string = string, 
                     generation = record.gen(rec),
@@ -125,6 +152,7 @@ local function filter_record(rec, filterFuncStr, filterFunc)
                     containsKey = containsKey,
                     containsValue = containsValue,
                     table = table,
+                    bytes = bytes,
                     dumpLocal = dumpLocal,
                     dumpTable = dumpTable,
                     dumpRecord = dumpRecord,
@@ -142,6 +170,111 @@ local function filter_record(rec, filterFuncStr, filterFunc)
   return true
 end
 
+-- Compares two non nil bin values for sorting.
+-- Values of different types are ordered by type name, values 
+-- that cannot be compared (maps, lists, bytes) are equal.
+local function compareValues(x, y)
+  if x == y then
+    return 0
+  end
+  local tx = type(x)
+  local ty = type(y)
+  if tx ~= ty then
+    if tx < ty then return -1 else return 1 end
+  end
+  if tx == "number" or tx == "string" then
+    if x < y then return -1 else return 1 end
+  end
+  return 0
+end
+
+-- Builds a function that returns true if result a sorts before result b,
+-- missing bins sort last in either direction.
+-- `sortBins` is the list of bin names, `sortDescending` a list of 0 or 1 flags.
+local function parseSortStatements(sortBins, sortDescending)
+  if sortBins == nil then
+    return nil
+  end
+  local bins = {}
+  local descending = {}
+  for v in list.iterator(sortBins) do
+    bins[#bins + 1] = v
+  end
+  if sortDescending ~= nil then
+    for v in list.iterator(sortDescending) do
+      descending[#descending + 1] = (v == 1)
+    end
+  end
+  return function(a, b)
+    for i = 1, #bins do
+      local x = a[bins[i]]
+      local y = b[bins[i]]
+      if x == nil or y == nil then
+        if x ~= nil then return true end
+        if y ~= nil then return false end
+      else
+        local c = compareValues(x, y)
+        if c ~= 0 then
+          if descending[i] then return c > 0 else return c < 0 end
+        end
+      end
+    end
+    return false
+  end
+end
+
+-- Returns an aggregate function that keeps the first `limit` results in the order of `sortFunc`.
+-- The partial result is a binary heap whose root is the last of them, so each record costs
+-- O(log limit), and the client sorts each partial result before merging the nodes.
+local function topInsert(sortFunc, limit)
+  return function(heap, result)
+    local size = list.size(heap)
+    if size < limit then
+      -- sift up from the new leaf
+      list.append(heap, result)
+      local i = size + 1
+      while i > 1 do
+        local parent = math.floor(i / 2)
+        if not sortFunc(heap[parent], result) then
+          break
+        end
+        heap[i] = heap[parent]
+        i = parent
+      end
+      heap[i] = result
+    elseif sortFunc(result, heap[1]) then
+      -- replace the root and sift down
+      local i = 1
+      while true do
+        local child = i * 2
+        if child > size then
+          break
+        end
+        if child < size and sortFunc(heap[child], heap[child + 1]) then
+          child = child + 1
+        end
+        if not sortFunc(result, heap[child]) then
+          break
+        end
+        heap[i] = heap[child]
+        i = child
+      end
+      heap[i] = result
+    end
+    return heap
+  end
+end
+
+-- Returns a filter function that passes only the first `limit` records of the stream of a node,
+-- a bound per node, the client applies the limit of the select
+local function limitRecords(limit)
+  local count = 0
+  return function(rec)
+    count = count + 1
+    return count <= limit
+  end
+end
+
 local function parseFieldStatements(fieldValueStatements)
   local fieldFuncs = nil
   if fieldValueStatements ~= nil then
@@ -154,10 +287,55 @@ local function parseFieldStatements(fieldValueStatements)
 end
 
 
-function delete_record(rec)
-  if aerospike:exists(rec) then
-    aerospike:remove(rec)
+-- Removes the record if it matches the filter, every record without a filter.
+-- Returns 1 if the record was removed, 0 otherwise.
+function delete_record(rec, filterFuncStr, filterArgs)
+  if not aerospike:exists(rec) then
+    return 0
+  end
+  if filterFuncStr ~= nil and filterFuncStr ~= "none" then
+    local filterFunc = compileFilter(filterFuncStr)
+    if not filter_record(rec, filterFuncStr, filterFunc, filterArgs) then
+      return 0
+    end
   end
+  aerospike:remove(rec)
+  return 1
+end
+
+-- Sets the bins in the map `bins` on the record if it matches the filter, then applies
+-- `operations`, a list of {"add" | "append" | "prepend", bin name, value}.
+-- Returns 1 if the record was updated, 0 otherwise.
+function update_record(rec, filterFuncStr, filterArgs, bins, operations)
+  if not aerospike:exists(rec) then
+    return 0
+  end
+  if filterFuncStr ~= nil and filterFuncStr ~= "none" then
+    local filterFunc = compileFilter(filterFuncStr)
+    if not filter_record(rec, filterFuncStr, filterFunc, filterArgs) then
+      return 0
+    end
+  end
+  if bins ~= nil then
+    for name, value in map.pairs(bins) do
+      rec[name] = value
+    end
+  end
+  if operations ~= nil then
+    for operation in list.iterator(operations) do
+      local name = operation[2]
+      local value = operation[3]
+      if operation[1] == "add" then
+        rec[name] = (rec[name] or 0) + value
+      elseif operation[1] == "append" then
+        rec[name] = (rec[name] or "") .. value
+      elseif operation[1] == "prepend" then
+        rec[name] = value .. (rec[name] or "")
+      end
+    end
+  end
+  aerospike:update(rec)
+  return 1
 end
 ------------------------------------------------------------------------------------------
 --  Returns Maps For Specified Filters
@@ -168,18 +346,16 @@ function select_records(stream, origArgs)
   local filterFuncStr = origArgs["filterFuncStr"]
   local fieldValueStatements = origArgs["funcStmt"]
   local fields = origArgs["selectFields"]
+  local sortFunc = parseSortStatements(origArgs["sortBins"], origArgs["sortDescending"])
+  local limit = origArgs["limit"] or 0
   
   local includeAllFields = false
   if origArgs["includeAllFields"] == 1 or origArgs["includeAllFields"] == 'true' then
     includeAllFields = true
   end
 
-  local filterFunc = nil
-  if filterFuncStr ~= "none" then
-  --  debug("load filter function:"..tostring(filterFuncStr))
-    filterFunc = load(filterFuncStr)
-  --  debug("loaded filter function")
-  end
+  local filterArgs = origArgs["filterArgs"]
+  local filterFunc = compileFilter(filterFuncStr)
   local fieldFuncs = parseFieldStatements(fieldValueStatements)
 
   local function map_record(rec)
@@ -223,14 +399,22 @@ function select_records(stream, origArgs)
 
   local function filter_records(rec)
     --debug("filterFuncStr:"..tostring(filterFuncStr))
-    return filter_record(rec, filterFuncStr, filterFunc)
+    return filter_record(rec, filterFuncStr, filterFunc, filterArgs)
   end
 
+  local results = stream
   if filterFuncStr ~= "none" then
-    return stream : filter(filter_records) : map(map_record)
-  else
-    return stream : map(map_record)
+    results = results : filter(filter_records)
+  end
+  if sortFunc == nil and limit > 0 then
+    results = results : filter(limitRecords(limit))
   end
+  results = results : map(map_record)
+  -- each partial result holds the first records of a node, sorted and merged by the client
+  if sortFunc ~= nil and limit > 0 then
+    results = results : aggregate(list(), topInsert(sortFunc, limit))
+  end
+  return results
 end
 
 ------------------------------------------------------------------------------------------
@@ -240,10 +424,8 @@ function query_meta(stream, origArgs)
   debug("origArgs: "..tostring(origArgs))
   local filterFuncStr = origArgs["filterFuncStr"]
 
-  local filterFunc = nil
-  if filterFuncStr ~= "none" then
-    filterFunc = load(filterFuncStr)
-  end
+  local filterArgs = origArgs["filterArgs"]
+  local filterFunc = compileFilter(filterFuncStr)
 
   local function add_records(rec)
 
@@ -258,7 +440,7 @@ function query_meta(stream, origArgs)
   end
 
   local function filter_records(rec)
-    return filter_record(rec, filterFuncStr, filterFunc)
+    return filter_record(rec, filterFuncStr, filterFunc, filterArgs)
   end
 
   return stream : filter(filter_records) : map(add_records)
@@ -271,10 +453,8 @@ function query_bin_names(stream, origArgs)
   debug("origArgs: "..tostring(origArgs))
   local filterFuncStr = origArgs["filterFuncStr"]
 
-  local filterFunc = nil
-  if filterFuncStr ~= "none" then
-    filterFunc = load(filterFuncStr)
-  end
+  local filterArgs = origArgs["filterArgs"]
+  local filterFunc = compileFilter(filterFuncStr)
 
   local function map_bin_names(bin_names, rec)
 
@@ -292,7 +472,7 @@ function query_bin_names(stream, origArgs)
   end
 
   local function filter_records(rec)
-    return filter_record(rec, filterFuncStr, filterFunc)
+    return filter_record(rec, filterFuncStr, filterFunc, filterArgs)
   end
 
   return stream : filter(filter_records) : aggregate(map {}, map_bin_names) : reduce(reducer)
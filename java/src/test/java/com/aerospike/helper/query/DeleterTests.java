@@ -92,5 +92,43 @@ public class DeleterTests extends HelperTests{
 		Record record = this.client.get(null, key);
 		Assert.assertNull(record);
 	}
-
+	@Test
+	public void deleteByKeyWithQualifier(){
+		Statement stmt = new Statement();
+		stmt.setNamespace(TestQueryEngine.NAMESPACE);
+		stmt.setSetName(TestQueryEngine.SET_NAME);
+		// selector-test:3 is yellow
+		Key key = new Key(TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, "selector-test:3");
+		KeyQualifier kq = new KeyQualifier(Value.get("selector-test:3"));
+		Map<String, Long> counts = queryEngine.delete(stmt, kq, new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue")));
+		Assert.assertEquals((Long)0L, (Long)counts.get("write"));
+		Assert.assertNotNull(this.client.get(null, key));
+		counts = queryEngine.delete(stmt, kq, new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("yellow")));
+		Assert.assertEquals((Long)1L, (Long)counts.get("write"));
+		Assert.assertNull(this.client.get(null, key));
+	}
+	@Test
+	public void deleteOnServer() throws IOException {
+		Qualifier qual1 = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue"));
+		Qualifier qual2 = new Qualifier("name", Qualifier.FilterOperation.START_WITH, Value.get("na"));
+		Statement stmt = new Statement();
+		stmt.setNamespace(TestQueryEngine.NAMESPACE);
+		stmt.setSetName(TestQueryEngine.SET_NAME);
+		queryEngine.setDeleteStrategy(QueryEngine.DeleteStrategy.SERVER);
+		try {
+			Map<String, Long> counts = queryEngine.delete(stmt, qual1, qual2);
+			Assert.assertEquals(counts.get("nodes"), counts.get("nodesDone"));
+		} finally {
+			queryEngine.setDeleteStrategy(QueryEngine.DeleteStrategy.AUTO);
+		}
+		stmt = new Statement();
+		stmt.setNamespace(TestQueryEngine.NAMESPACE);
+		stmt.setSetName(TestQueryEngine.SET_NAME);
+		KeyRecordIterator it = queryEngine.select(stmt, false, null, qual1, qual2);
+		try {
+			Assert.assertFalse(it.hasNext());
+		} finally {
+			it.close();
+		}
+	}
 }
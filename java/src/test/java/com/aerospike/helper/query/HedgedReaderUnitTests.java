@@ -0,0 +1,151 @@
+package com.aerospike.helper.query;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.Record;
+import com.aerospike.client.ResultCode;
+import com.aerospike.client.policy.Policy;
+import com.aerospike.client.policy.Replica;
+
+/**
+ * Unit tests for {@link HedgedReader}.
+ */
+public class HedgedReaderUnitTests {
+	private ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private static Record record(String value){
+		Map<String, Object> bins = new HashMap<String, Object>();
+		bins.put("name", value);
+		return new Record(bins, 1, 0);
+	}
+
+	@Test
+	public void hedgesSlowMaster() {
+		HedgedReader reader = new HedgedReader(executor, new Policy(), 95.0, 0, 1);
+		Record record = reader.get(new HedgedReader.Read() {
+			@Override
+			public Record read(Policy policy) throws AerospikeException {
+				if (policy.replica == Replica.MASTER){
+					try {
+						Thread.sleep(2000);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return record("master");
+				}
+				return record("replica");
+			}
+		});
+		Assert.assertEquals("replica", record.getString("name"));
+		Map<String, Long> counts = reader.getCounts();
+		Assert.assertEquals(1L, (long) counts.get("hedged"));
+		Assert.assertEquals(1L, (long) counts.get("hedgeWins"));
+	}
+
+	@Test
+	public void hedgeAnswersFailedMaster() {
+		HedgedReader reader = new HedgedReader(executor, new Policy(), 95.0, 0, 1);
+		Record record = reader.get(new HedgedReader.Read() {
+			@Override
+			public Record read(Policy policy) throws AerospikeException {
+				if (policy.replica == Replica.MASTER){
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					throw new AerospikeException(ResultCode.TIMEOUT);
+				}
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return record("replica");
+			}
+		});
+		Assert.assertEquals("replica", record.getString("name"));
+		Assert.assertEquals(1L, (long) reader.getCounts().get("hedgeWins"));
+		Assert.assertEquals(0L, (long) reader.getCounts().get("retry"));
+	}
+
+	@Test
+	public void fastMasterIsNotHedged() {
+		HedgedReader reader = new HedgedReader(executor, new Policy(), 95.0, 0, 1);
+		Record record = reader.get(new HedgedReader.Read() {
+			@Override
+			public Record read(Policy policy) throws AerospikeException {
+				return (policy.replica == Replica.MASTER) ? record("master") : record("replica");
+			}
+		});
+		Assert.assertEquals("master", record.getString("name"));
+		Assert.assertEquals(0L, (long) reader.getCounts().get("hedged"));
+	}
+
+	@Test
+	public void retriesTransientErrors() {
+		final AtomicInteger attempts = new AtomicInteger();
+		HedgedReader reader = new HedgedReader(executor, new Policy(), 95.0, 2, 1);
+		Record record = reader.get(new HedgedReader.Read() {
+			@Override
+			public Record read(Policy policy) throws AerospikeException {
+				if (attempts.incrementAndGet() < 3)
+					throw new AerospikeException(ResultCode.TIMEOUT);
+				return record("master");
+			}
+		});
+		Assert.assertEquals("master", record.getString("name"));
+		Assert.assertEquals(2L, (long) reader.getCounts().get("retry"));
+	}
+
+	@Test
+	public void doesNotRetryOtherErrors() {
+		final AtomicInteger attempts = new AtomicInteger();
+		HedgedReader reader = new HedgedReader(executor, new Policy(), 95.0, 2, 1);
+		try {
+			reader.get(new HedgedReader.Read() {
+				@Override
+				public Record read(Policy policy) throws AerospikeException {
+					attempts.incrementAndGet();
+					throw new AerospikeException(ResultCode.PARAMETER_ERROR);
+				}
+			});
+			Assert.fail("expected an AerospikeException");
+		} catch (AerospikeException e) {
+			Assert.assertEquals(ResultCode.PARAMETER_ERROR, e.getResultCode());
+		}
+		Assert.assertEquals(1, attempts.get());
+	}
+
+	@Test
+	public void percentile() {
+		long[] values = new long[100];
+		for (int i = 0; i < values.length; i++)
+			values[i] = values.length - i;
+		Assert.assertEquals(95, HedgedReader.percentile(values, 95.0));
+		Assert.assertEquals(100, HedgedReader.percentile(values, 100.0));
+		Assert.assertEquals(1, HedgedReader.percentile(values, 0.0));
+	}
+
+	@Test
+	public void delayFollowsLatencies() {
+		HedgedReader reader = new HedgedReader(executor, new Policy(), 50.0, 0, 1);
+		for (int i = 0; i < HedgedReader.RECOMPUTE_INTERVAL; i++)
+			reader.addLatency(4000000L);
+		Assert.assertEquals(4.0, reader.getHedgeDelayMillis(), 0.001);
+	}
+}
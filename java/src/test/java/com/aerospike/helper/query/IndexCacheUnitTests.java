@@ -0,0 +1,64 @@
+package com.aerospike.helper.query;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aerospike.client.query.IndexCollectionType;
+import com.aerospike.helper.model.Index;
+
+/**
+ * Unit tests for {@link IndexCache}.
+ */
+public class IndexCacheUnitTests {
+	private static final Index TEST_AGE = new Index("ns=test:set=people:indexname=age_idx:bin=age:type=NUMERIC:indextype=NONE:sync_state=synced:state=RW");
+	private static final Index TEST_TAGS = new Index("ns=test:set=people:indexname=tags_idx:bin=tags:type=STRING:indextype=LIST:sync_state=synced:state=RW");
+	private static final Index TEST_NAME = new Index("ns=test:set=NULL:indexname=name_idx:bin=name:type=STRING:indextype=NONE:sync_state=synced:state=RW");
+	private static final Index BAR_AGE = new Index("ns=bar:set=people:indexname=bar_age_idx:bin=age:type=NUMERIC:indextype=NONE:sync_state=synced:state=RW");
+
+	private final IndexCache cache = new IndexCache(Arrays.asList(TEST_AGE, TEST_TAGS, TEST_NAME, BAR_AGE));
+
+	@Test
+	public void findsByNamespaceSetAndBin() {
+		Assert.assertSame(TEST_AGE, cache.find("test", "people", "age", IndexCollectionType.DEFAULT));
+		Assert.assertSame(BAR_AGE, cache.find("bar", "people", "age", IndexCollectionType.DEFAULT));
+		Assert.assertNull(cache.find("test", "cars", "age", IndexCollectionType.DEFAULT));
+		Assert.assertNull(cache.find("other", "people", "age", null));
+	}
+
+	@Test
+	public void namespaceIndexServesEverySet() {
+		Assert.assertSame(TEST_NAME, cache.find("test", "people", "name", null));
+		Assert.assertSame(TEST_NAME, cache.find("test", "cars", "name", null));
+		Assert.assertSame(TEST_NAME, cache.find("test", null, "name", null));
+	}
+
+	@Test
+	public void noSetUsesOnlyNamespaceIndexes() {
+		Assert.assertNull(cache.find("test", null, "age", null));
+		Assert.assertFalse(cache.isIndexed("test", null, "tags"));
+	}
+
+	@Test
+	public void equalIndexesHaveEqualHashCodes() {
+		Index copy = new Index("ns=test:set=people:indexname=age_idx:bin=age:type=NUMERIC:indextype=NONE:sync_state=synced:state=RW");
+		Assert.assertEquals(TEST_AGE, copy);
+		Assert.assertEquals(TEST_AGE.hashCode(), copy.hashCode());
+	}
+
+	@Test
+	public void matchesCollectionType() {
+		Assert.assertSame(TEST_TAGS, cache.find("test", "people", "tags", IndexCollectionType.LIST));
+		Assert.assertNull(cache.find("test", "people", "tags", IndexCollectionType.DEFAULT));
+		Assert.assertTrue(cache.isIndexed("test", "people", "tags"));
+	}
+
+	@Test
+	public void indexesByBin() {
+		Assert.assertEquals(2, cache.getByBin("age").size());
+		Assert.assertNull(cache.getByBin("color"));
+		Assert.assertEquals(4, cache.size());
+		Assert.assertEquals(0, IndexCache.EMPTY.size());
+	}
+}
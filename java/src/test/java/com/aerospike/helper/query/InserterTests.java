@@ -1,5 +1,6 @@
 package com.aerospike.helper.query;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -106,4 +107,29 @@ public class InserterTests extends HelperTests{
 		}
 	}
 
+	@Test
+	public void insertAll(){
+		List<KeyBins> records = new ArrayList<KeyBins>();
+		int i = 0;
+		for (int x = 1; x <= TestQueryEngine.RECORD_COUNT; x++){
+			Key key = new Key(TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, "selector-test:"+x);
+			this.client.delete(null, key);
+			records.add(new KeyBins(key, new Bin("name", "name:" + x), new Bin("age", ages[i]), 
+					new Bin("color", colours[i]), new Bin("animal", animals[i])));
+			i++;
+			if ( i == 5)
+				i = 0;
+		}
+		Map<String, Long> counts = queryEngine.insertAll(records.iterator(), 600, null);
+		Assert.assertEquals((Long)(long)TestQueryEngine.RECORD_COUNT, counts.get("write"));
+		Record record = this.client.get(null, records.get(0).key);
+		Assert.assertNotNull(record);
+		Assert.assertTrue(record.getTimeToLive() <= 600);
+
+		List<Key> existing = new ArrayList<Key>();
+		counts = queryEngine.insertAll(records.subList(0, 10), 0, existing);
+		Assert.assertEquals((Long)0L, counts.get("write"));
+		Assert.assertEquals((Long)10L, counts.get("exists"));
+		Assert.assertEquals(10, existing.size());
+	}
 }
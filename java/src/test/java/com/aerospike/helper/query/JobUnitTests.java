@@ -0,0 +1,116 @@
+package com.aerospike.helper.query;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+
+/**
+ * Unit tests for {@link Job} and {@link DigestModuloQualifier}.
+ */
+public class JobUnitTests {
+
+	private Map<String, Long> counts(long read, long write){
+		Map<String, Long> counts = new HashMap<String, Long>();
+		counts.put("read", read);
+		counts.put("write", write);
+		counts.put("elapsedMillis", 5L);
+		return counts;
+	}
+
+	@Test
+	public void runsEveryBucket() {
+		final Set<Integer> buckets = new HashSet<Integer>();
+		Job job = new Job("test", null, null, 8, new Job.Work() {
+			@Override
+			public Map<String, Long> run(Qualifier bucket, Job job) {
+				synchronized (buckets) {
+					buckets.add(((DigestModuloQualifier) bucket).getBucket());
+				}
+				return counts(10, 9);
+			}
+		});
+		job.start();
+		Map<String, Long> progress = job.waitTillComplete();
+		Assert.assertEquals(Job.Status.DONE, job.getStatus());
+		Assert.assertEquals(8, buckets.size());
+		Assert.assertEquals(80L, (long) progress.get("read"));
+		Assert.assertEquals(72L, (long) progress.get("write"));
+		Assert.assertEquals(8L, (long) progress.get("bucketsDone"));
+	}
+
+	@Test
+	public void singleBucketHasNoQualifier() {
+		Job job = new Job("test", null, null, 1, new Job.Work() {
+			@Override
+			public Map<String, Long> run(Qualifier bucket, Job job) {
+				Assert.assertNull(bucket);
+				return counts(1, 1);
+			}
+		});
+		job.start();
+		job.waitTillComplete();
+		Assert.assertEquals(Job.Status.DONE, job.getStatus());
+	}
+
+	@Test
+	public void cancelStopsTheJob() throws Exception {
+		final CountDownLatch running = new CountDownLatch(1);
+		Job job = new Job("test", null, null, 100, new Job.Work() {
+			@Override
+			public Map<String, Long> run(Qualifier bucket, Job job) {
+				running.countDown();
+				while (!job.isCancelled())
+					Thread.yield();
+				return counts(1, 1);
+			}
+		});
+		job.start();
+		running.await();
+		job.cancel();
+		Map<String, Long> progress = job.waitTillComplete();
+		Assert.assertEquals(Job.Status.CANCELLED, job.getStatus());
+		Assert.assertEquals(0L, (long) progress.get("bucketsDone"));
+	}
+
+	@Test
+	public void failedWorkFailsTheJob() {
+		Job job = new Job("test", null, null, 4, new Job.Work() {
+			@Override
+			public Map<String, Long> run(Qualifier bucket, Job job) {
+				throw new IllegalStateException("failed");
+			}
+		});
+		job.start();
+		job.waitTillComplete();
+		Assert.assertEquals(Job.Status.FAILED, job.getStatus());
+		Assert.assertTrue(job.getError() instanceof IllegalStateException);
+	}
+
+	@Test
+	public void digestModuloSplitsKeys() {
+		int[] sizes = new int[4];
+		for (int i = 0; i < 1000; i++){
+			Key key = new Key("test", "jobs", i);
+			int bucket = DigestModuloQualifier.bucket(key.digest, 4);
+			sizes[bucket]++;
+			for (int b = 0; b < 4; b++)
+				Assert.assertEquals(b == bucket, new DigestModuloQualifier(4, b).matches(key, new Record(null, 1, 0)));
+		}
+		for (int size : sizes)
+			Assert.assertTrue(size > 150);
+	}
+
+	@Test
+	public void digestModuloPredExp() {
+		Assert.assertEquals(3, new DigestModuloQualifier(4, 1).toPredExp().length);
+		Assert.assertTrue(new DigestModuloQualifier(4, 1).luaFilterString().contains("% 4 == 1"));
+	}
+}
@@ -0,0 +1,96 @@
+package com.aerospike.helper.query;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import com.aerospike.client.query.KeyRecord;
+
+/**
+ * Unit tests for {@link MergedKeyRecordIterator}.
+ */
+public class MergedKeyRecordIteratorUnitTests {
+	private ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private KeyRecordIterator makeSource(int id){
+		Map<String, Object> bins = new HashMap<String, Object>();
+		bins.put("id", id);
+		Key key = new Key("test", "merged", id);
+		return new KeyRecordIterator("test", new KeyRecord(key, new Record(bins, 1, 0)));
+	}
+
+	private int count(KeyRecordIterator it) throws Exception {
+		int count = 0;
+		try {
+			while (it.hasNext()){
+				Assert.assertNotNull(it.next());
+				count++;
+			}
+		} finally {
+			it.close();
+		}
+		return count;
+	}
+
+	@Test
+	public void mergesAllSources() throws Exception {
+		List<KeyRecordIterator> sources = new ArrayList<KeyRecordIterator>();
+		sources.add(makeSource(1));
+		sources.add(makeSource(1));
+		sources.add(makeSource(2));
+		Assert.assertEquals(3, count(new MergedKeyRecordIterator("test", sources, executor, 10)));
+	}
+
+	@Test
+	public void skipsDuplicateDigests() throws Exception {
+		List<KeyRecordIterator> sources = new ArrayList<KeyRecordIterator>();
+		sources.add(makeSource(1));
+		sources.add(makeSource(1));
+		sources.add(makeSource(2));
+		Assert.assertEquals(2, count(new MergedKeyRecordIterator("test", sources, executor, 10, true)));
+	}
+
+	@Test
+	public void failsWhenReaderIsInterrupted() throws Exception {
+		final KeyRecord keyRecord = makeSource(1).next();
+		List<KeyRecordIterator> sources = new ArrayList<KeyRecordIterator>();
+		sources.add(new KeyRecordIterator("test") {
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+			@Override
+			public KeyRecord next() {
+				return keyRecord;
+			}
+		});
+		KeyRecordIterator it = new MergedKeyRecordIterator("test", sources, executor, 1);
+		Thread.sleep(200); // the reader fills the buffer and waits for space
+		executor.shutdownNow();
+		Thread.sleep(200);
+		try {
+			it.hasNext();
+			it.next();
+			Assert.fail("An interrupted reader must not end the stream normally");
+		} catch (AerospikeException e) {
+			Assert.assertTrue(e.getCause() instanceof InterruptedException);
+		} finally {
+			it.close();
+		}
+	}
+}
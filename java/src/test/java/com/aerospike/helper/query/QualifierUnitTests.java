@@ -0,0 +1,168 @@
+package com.aerospike.helper.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import com.aerospike.client.Value;
+
+/**
+ * Unit tests for {@link Qualifier}.
+ */
+public class QualifierUnitTests {
+
+	@Test
+	public void inlinesLiteralValues() {
+		Qualifier qualifier = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue"));
+		Assert.assertEquals("rec['color'] == 'blue'", qualifier.luaFilterString());
+	}
+
+	@Test
+	public void templateUsesArgumentSlots() {
+		List<Value> args = new ArrayList<Value>();
+		Qualifier qual1 = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue"));
+		Qualifier qual2 = new Qualifier("age", Qualifier.FilterOperation.BETWEEN, Value.get(25), Value.get(30));
+		Assert.assertEquals("rec['color'] == args[1]", qual1.luaFilterString(args));
+		Assert.assertEquals("rec['age'] >= args[2] and rec['age'] <= args[3]  ", qual2.luaFilterString(args));
+		Assert.assertEquals(3, args.size());
+		Assert.assertEquals(Value.get(30), args.get(2));
+	}
+
+	@Test
+	public void sameTemplateForDifferentValues() {
+		Qualifier qual1 = new Qualifier("age", Qualifier.FilterOperation.GT, Value.get(25));
+		Qualifier qual2 = new Qualifier("age", Qualifier.FilterOperation.GT, Value.get(40));
+		Assert.assertEquals(qual1.luaFilterString(new ArrayList<Value>()), qual2.luaFilterString(new ArrayList<Value>()));
+	}
+
+	@Test
+	public void inExpandsToEqualityBranches() {
+		Qualifier qualifier = new Qualifier("age", Qualifier.FilterOperation.IN, Value.get(Arrays.asList(25, 30)));
+		Assert.assertEquals("(rec['age'] == 25 or rec['age'] == 30)", qualifier.luaFilterString());
+		List<Qualifier> branches = qualifier.getBranches();
+		Assert.assertEquals(2, branches.size());
+		Assert.assertEquals(Qualifier.FilterOperation.EQ, branches.get(1).getOperation());
+		Assert.assertEquals(Value.get(30), branches.get(1).getValue1());
+		Assert.assertNull(qualifier.asFilter());
+	}
+
+	@Test
+	public void orCombinesBranches() {
+		List<Value> args = new ArrayList<Value>();
+		Qualifier qualifier = new OrQualifier(
+				new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue")),
+				new Qualifier("age", Qualifier.FilterOperation.IN, Value.get(Arrays.asList(25, 30))));
+		Assert.assertEquals("((rec['color'] == args[1]) or ((rec['age'] == args[2] or rec['age'] == args[3])))", qualifier.luaFilterString(args));
+		Assert.assertEquals(3, qualifier.getBranches().size());
+		Assert.assertNull(new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue")).getBranches());
+	}
+
+	@Test
+	public void nativePredExpForIntegersAndStrings() {
+		Assert.assertEquals(3, new Qualifier("age", Qualifier.FilterOperation.GT, Value.get(25)).toPredExp().length);
+		Assert.assertEquals(4, new Qualifier("color", Qualifier.FilterOperation.NOTEQ, Value.get("blue")).toPredExp().length);
+		Assert.assertEquals(7, new Qualifier("age", Qualifier.FilterOperation.BETWEEN, Value.get(25), Value.get(30)).toPredExp().length);
+		Assert.assertEquals(5, new Qualifier("tags", Qualifier.FilterOperation.LIST_CONTAINS, Value.get("a")).toPredExp().length);
+		Assert.assertEquals(7, new Qualifier("age", Qualifier.FilterOperation.IN, Value.get(Arrays.asList(25, 30))).toPredExp().length);
+	}
+
+	@Test
+	public void noPredExpWithoutNativeEquivalent() {
+		Assert.assertNull(new Qualifier("color", Qualifier.FilterOperation.GT, Value.get("blue")).toPredExp());
+		Assert.assertNull(new Qualifier("price", Qualifier.FilterOperation.EQ, Value.get(1.5)).toPredExp());
+		Assert.assertNull(new GenerationQualifier(Qualifier.FilterOperation.EQ, Value.get(1)).toPredExp());
+		Assert.assertNull(new ExpiryQualifier(Qualifier.FilterOperation.GT, Value.get(100)).toPredExp());
+		Assert.assertNull(new KeyQualifier(Value.get("key")).toPredExp());
+		Assert.assertNull(new OrQualifier(
+				new Qualifier("age", Qualifier.FilterOperation.EQ, Value.get(25)),
+				new Qualifier("price", Qualifier.FilterOperation.EQ, Value.get(1.5))).toPredExp());
+	}
+
+	private Record makeRecord(){
+		Map<String, Object> bins = new HashMap<String, Object>();
+		bins.put("age", 25L);
+		bins.put("color", "blue");
+		bins.put("price", 2.5);
+		bins.put("tags", Arrays.asList("a", "b"));
+		Map<String, Object> scores = new HashMap<String, Object>();
+		scores.put("math", 80L);
+		bins.put("scores", scores);
+		bins.put("location", "{\"type\":\"Point\",\"coordinates\":[-122.0, 37.5]}");
+		return new Record(bins, 3, 0);
+	}
+
+	@Test
+	public void matchesComparisons() {
+		Record record = makeRecord();
+		Assert.assertTrue(new Qualifier("age", Qualifier.FilterOperation.EQ, Value.get(25)).matches(record));
+		Assert.assertTrue(new Qualifier("age", Qualifier.FilterOperation.GTEQ, Value.get(25)).matches(record));
+		Assert.assertFalse(new Qualifier("age", Qualifier.FilterOperation.GT, Value.get(25)).matches(record));
+		Assert.assertTrue(new Qualifier("price", Qualifier.FilterOperation.LT, Value.get(3)).matches(record));
+		Assert.assertTrue(new Qualifier("age", Qualifier.FilterOperation.BETWEEN, Value.get(20), Value.get(30)).matches(record));
+		Assert.assertTrue(new Qualifier("color", Qualifier.FilterOperation.NOTEQ, Value.get("red")).matches(record));
+		Assert.assertTrue(new Qualifier("missing", Qualifier.FilterOperation.NOTEQ, Value.get("red")).matches(record));
+		Assert.assertFalse(new Qualifier("color", Qualifier.FilterOperation.GT, Value.get(1)).matches(record));
+		Assert.assertTrue(new Qualifier("color", Qualifier.FilterOperation.START_WITH, Value.get("bl")).matches(record));
+		Assert.assertTrue(new Qualifier("color", Qualifier.FilterOperation.ENDS_WITH, Value.get("ue")).matches(record));
+		Assert.assertTrue(new Qualifier("age", Qualifier.FilterOperation.IN, Value.get(Arrays.asList(20, 25))).matches(record));
+		Assert.assertTrue(new GenerationQualifier(Qualifier.FilterOperation.EQ, Value.get(3)).matches(record));
+	}
+
+	@Test
+	public void matchesExpiration() {
+		// the expiration is a void time since 2010, the qualifier compares the seconds left to live
+		int now = (int) ((System.currentTimeMillis() - 1262304000000L) / 1000);
+		Record record = new Record(new HashMap<String, Object>(), 1, now + 500);
+		Assert.assertTrue(new ExpiryQualifier(Qualifier.FilterOperation.GT, Value.get(100)).matches(record));
+		Assert.assertFalse(new ExpiryQualifier(Qualifier.FilterOperation.LT, Value.get(100)).matches(record));
+		Assert.assertFalse(new ExpiryQualifier(Qualifier.FilterOperation.GT, Value.get(1000)).matches(record));
+	}
+
+	@Test
+	public void matchesCollections() {
+		Record record = makeRecord();
+		Assert.assertTrue(new Qualifier("tags", Qualifier.FilterOperation.LIST_CONTAINS, Value.get("b")).matches(record));
+		Assert.assertFalse(new Qualifier("tags", Qualifier.FilterOperation.LIST_CONTAINS, Value.get("c")).matches(record));
+		Assert.assertTrue(new Qualifier("scores", Qualifier.FilterOperation.MAP_KEYS_CONTAINS, Value.get("math")).matches(record));
+		Assert.assertTrue(new Qualifier("scores", Qualifier.FilterOperation.MAP_VALUES_BETWEEN, Value.get(70), Value.get(90)).matches(record));
+		Assert.assertFalse(new Qualifier("scores", Qualifier.FilterOperation.MAP_VALUES_CONTAINS, Value.get("math")).matches(record));
+		Assert.assertTrue(new OrQualifier(
+				new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("red")),
+				new Qualifier("tags", Qualifier.FilterOperation.LIST_CONTAINS, Value.get("a"))).matches(record));
+	}
+
+	@Test
+	public void matchesGeo() {
+		Record record = makeRecord();
+		String region = "{\"type\":\"Polygon\",\"coordinates\":[[[-123.0,37.0],[-121.0,37.0],[-121.0,38.0],[-123.0,38.0],[-123.0,37.0]]]}";
+		Assert.assertTrue(new Qualifier("location", Qualifier.FilterOperation.GEO_WITHIN_REGION, Value.getAsGeoJSON(region)).matches(record));
+		Assert.assertTrue(new Qualifier("location", Qualifier.FilterOperation.GEO_WITHIN_RADIUS, Value.get(-122.0), Value.get(37.51), Value.get(2000)).matches(record));
+		Assert.assertFalse(new Qualifier("location", Qualifier.FilterOperation.GEO_WITHIN_RADIUS, Value.get(-122.0), Value.get(37.6), Value.get(2000)).matches(record));
+	}
+
+	@Test
+	public void matchesKey() {
+		Key key = new Key("test", "selector", "selector-test:1");
+		Record record = makeRecord();
+		Assert.assertTrue(new KeyQualifier(Value.get("selector-test:1")).matches(key, record));
+		Assert.assertTrue(new KeyQualifier(key.digest).matches(key, record));
+		Assert.assertFalse(new KeyQualifier(Value.get("selector-test:2")).matches(key, record));
+	}
+
+	@Test
+	public void multiKeyMatchesByDigest() {
+		Key key = new Key("test", "selector", "selector-test:2");
+		MultiKeyQualifier qualifier = new MultiKeyQualifier(Value.get("selector-test:1"), Value.get("selector-test:2"));
+		Assert.assertTrue(qualifier.matches(key, makeRecord()));
+		Assert.assertFalse(qualifier.matches(new Key("test", "selector", "selector-test:3"), makeRecord()));
+		Assert.assertEquals(2, qualifier.makeKeys("test", "selector").size());
+		Assert.assertNull(qualifier.toPredExp());
+	}
+}
@@ -0,0 +1,110 @@
+package com.aerospike.helper.query;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aerospike.client.Value;
+import com.aerospike.helper.model.Namespace;
+import com.aerospike.helper.query.Qualifier.FilterOperation;
+
+/**
+ * Unit tests for {@link QueryEngine}.
+ */
+public class QueryEngineUnitTests {
+
+	private Map<String, Long> newStatus(){
+		Map<String, Long> status = new HashMap<String, Long>();
+		status.put("nodes", 0L);
+		status.put("nodesDone", 0L);
+		return status;
+	}
+
+	@Test
+	public void mergesJobStatusOfNodes() {
+		Map<String, Long> status = newStatus();
+		QueryEngine.mergeJobStatus("module=query:trid=42:job-type=basic:status=active(ok):recs-read=100:run-time=7", status);
+		QueryEngine.mergeJobStatus("module=query:trid=42:job-type=basic:status=done(ok):recs-read=50:run-time=3\n", status);
+		Assert.assertEquals(2L, (long) status.get("nodes"));
+		Assert.assertEquals(1L, (long) status.get("nodesDone"));
+		Assert.assertEquals(150L, (long) status.get("recs-read"));
+		Assert.assertEquals(10L, (long) status.get("run-time"));
+		Assert.assertNull(status.get("trid"));
+	}
+
+	@Test
+	public void unknownJobIsDone() {
+		Map<String, Long> status = newStatus();
+		QueryEngine.mergeJobStatus("ERROR:2:job not found", status);
+		Assert.assertEquals(1L, (long) status.get("nodes"));
+		Assert.assertEquals(1L, (long) status.get("nodesDone"));
+	}
+
+	private Map<String, String> nodeInfo(long objects, long setObjects){
+		Map<String, String> info = new HashMap<String, String>();
+		info.put("namespaces", "test;bar");
+		info.put("namespace/test", "objects=" + objects + ";free-pct-memory=80;stop-writes=false");
+		info.put("sets/test", "ns=test:set=people:objects=" + setObjects + ":deleting=false;");
+		info.put("namespace/bar", "objects=1");
+		info.put("sets/bar", "");
+		return info;
+	}
+
+	@Test
+	public void mergesNamespacesOfNodes() {
+		TreeMap<String, Namespace> namespaces = QueryEngine.mergeNamespaces(Arrays.asList(nodeInfo(100, 40), nodeInfo(200, 60)));
+		Assert.assertEquals(2, namespaces.size());
+		Namespace test = namespaces.get("test");
+		Assert.assertEquals(300, test.getObjects());
+		Assert.assertEquals(100, test.findSet("people").getObjects());
+		Assert.assertEquals(80, test.getFreePctMemory());
+		Assert.assertEquals(2, namespaces.get("bar").getObjects());
+	}
+
+	@Test
+	public void mergeBuildsNewNamespaces() {
+		Map<String, String> info = nodeInfo(100, 40);
+		TreeMap<String, Namespace> first = QueryEngine.mergeNamespaces(Arrays.asList(info));
+		TreeMap<String, Namespace> second = QueryEngine.mergeNamespaces(Arrays.asList(info));
+		Assert.assertEquals(100, second.get("test").getObjects());
+		Assert.assertNotSame(first.get("test"), second.get("test"));
+	}
+
+	@Test
+	public void predExpNeedsServer312() {
+		Assert.assertTrue(QueryEngine.supportsPredExp("3.12.1"));
+		Assert.assertTrue(QueryEngine.supportsPredExp("3.15.0.1"));
+		Assert.assertTrue(QueryEngine.supportsPredExp("4.0.0"));
+		Assert.assertFalse(QueryEngine.supportsPredExp("3.9.1"));
+		Assert.assertFalse(QueryEngine.supportsPredExp("3.11.1-1"));
+		Assert.assertFalse(QueryEngine.supportsPredExp(""));
+		Assert.assertFalse(QueryEngine.supportsPredExp(null));
+	}
+
+	@Test
+	public void namespaceHealthIsTheWorstNode() {
+		Map<String, String> healthy = nodeInfo(100, 40);
+		Map<String, String> breached = nodeInfo(100, 40);
+		breached.put("namespace/test", "objects=100;memory_free_pct=30;high-water-memory-pct=60;hwm_breached=true;stop_writes=false");
+		Map<String, WriteThrottle.Health> health = QueryEngine.namespaceHealth(Arrays.asList(healthy, breached));
+		Assert.assertEquals(WriteThrottle.Health.HWM_BREACHED, health.get("test"));
+		Assert.assertEquals(WriteThrottle.Health.OK, health.get("bar"));
+	}
+
+	@Test
+	public void qualifierBinsSkipMetaData() {
+		Set<String> bins = new HashSet<String>();
+		QueryEngine.addQualifierBins(new Qualifier("age", FilterOperation.GT, Value.get(20)), bins);
+		QueryEngine.addQualifierBins(new KeyQualifier(Value.get("key")), bins);
+		QueryEngine.addQualifierBins(new OrQualifier(
+				new Qualifier("color", FilterOperation.EQ, Value.get("blue")),
+				new OrQualifier(new Qualifier("shape", FilterOperation.EQ, Value.get("round")))), bins);
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("age", "color", "shape")), bins);
+	}
+}
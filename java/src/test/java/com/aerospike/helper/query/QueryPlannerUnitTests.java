@@ -0,0 +1,58 @@
+package com.aerospike.helper.query;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aerospike.client.Value;
+import com.aerospike.helper.model.Index;
+
+/**
+ * Unit tests for {@link QueryPlanner}.
+ */
+public class QueryPlannerUnitTests {
+
+	private Index makeIndex(String bin, String stats){
+		Index index = new Index("ns=test:set=selector:indexname=" + bin + "_index:bin=" + bin + ":type=STRING:indextype=NONE:path=" + bin + ":sync_state=synced:state=RW");
+		if (stats != null)
+			index.mergeIndexStats(stats);
+		return index;
+	}
+
+	@Test
+	public void mergesIndexStatsAcrossNodes() {
+		Index index = makeIndex("color", "keys=5:entries=600:ibtr_memory_used=18688:load_pct=100");
+		index.mergeIndexStats("keys=4;entries=400;load_pct=100");
+		Assert.assertTrue(index.hasStats());
+		Assert.assertEquals(5, index.getKeys());
+		Assert.assertEquals(1000, index.getEntries());
+		index.clearStats();
+		Assert.assertFalse(index.hasStats());
+	}
+
+	@Test
+	public void ignoresFailedStats() {
+		Index index = makeIndex("color", "FAIL:201:NO INDEX");
+		Assert.assertFalse(index.hasStats());
+	}
+
+	@Test
+	public void highCardinalityIndexIsMoreSelective() {
+		Index color = makeIndex("color", "keys=5:entries=1000");
+		Index name = makeIndex("name", "keys=1000:entries=1000");
+		Qualifier colorQual = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue"));
+		Qualifier nameQual = new Qualifier("name", Qualifier.FilterOperation.EQ, Value.get("name:1"));
+		double colorEstimate = QueryPlanner.estimate(colorQual, color, 1000);
+		double nameEstimate = QueryPlanner.estimate(nameQual, name, 1000);
+		Assert.assertEquals(200.0, colorEstimate, 0.001);
+		Assert.assertEquals(1.0, nameEstimate, 0.001);
+	}
+
+	@Test
+	public void defaultsWithoutStats() {
+		Qualifier eq = new Qualifier("age", Qualifier.FilterOperation.EQ, Value.get(25));
+		Qualifier between = new Qualifier("age", Qualifier.FilterOperation.BETWEEN, Value.get(25), Value.get(30));
+		Assert.assertEquals(100.0, QueryPlanner.estimate(eq, null, 1000), 0.001);
+		Assert.assertTrue(QueryPlanner.estimate(eq, null, 0) < QueryPlanner.estimate(between, null, 0));
+		Assert.assertTrue(QueryPlanner.estimate(eq, makeIndex("age", "keys=5:entries=1000"), 0) < QueryPlanner.estimate(eq, null, 0));
+	}
+}
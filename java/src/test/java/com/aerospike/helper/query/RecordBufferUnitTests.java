@@ -0,0 +1,75 @@
+package com.aerospike.helper.query;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import com.aerospike.client.query.KeyRecord;
+
+/**
+ * Unit tests for {@link RecordBuffer}.
+ */
+public class RecordBufferUnitTests {
+
+	private KeyRecord makeRecord(int i, String value){
+		Map<String, Object> bins = new HashMap<String, Object>();
+		bins.put("value", value);
+		return new KeyRecord(new Key("test", "buffer", i), new Record(bins, 1, 0));
+	}
+
+	@Test
+	public void drainsInOrderAfterProducerDone() throws Exception {
+		RecordBuffer buffer = new RecordBuffer(10, 1);
+		for (int i = 0; i < 5; i++)
+			Assert.assertTrue(buffer.put(makeRecord(i, "v" + i)));
+		buffer.producerDone();
+		for (int i = 0; i < 5; i++)
+			Assert.assertEquals("v" + i, buffer.take().record.getString("value"));
+		Assert.assertNull(buffer.take());
+	}
+
+	@Test
+	public void producerBlocksOnByteLimit() throws Exception {
+		final KeyRecord big = makeRecord(1, "0123456789012345678901234567890123456789");
+		final RecordBuffer buffer = new RecordBuffer(100, RecordBuffer.estimateSize(big) + 1, 1);
+		Assert.assertTrue(buffer.put(big));
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					buffer.put(big);
+					buffer.producerDone();
+				} catch (InterruptedException e) {
+				}
+			}
+		});
+		producer.start();
+		producer.join(200);
+		Assert.assertTrue(producer.isAlive()); // second record does not fit
+		Assert.assertNotNull(buffer.take());
+		producer.join(1000);
+		Assert.assertFalse(producer.isAlive());
+		Assert.assertNotNull(buffer.take());
+		Assert.assertNull(buffer.take());
+	}
+
+	@Test
+	public void closeReleasesProducer() throws Exception {
+		RecordBuffer buffer = new RecordBuffer(1, 1);
+		Assert.assertTrue(buffer.put(makeRecord(1, "a")));
+		buffer.close();
+		Assert.assertFalse(buffer.put(makeRecord(2, "b")));
+		Assert.assertNull(buffer.take());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void failureIsRethrown() {
+		RecordBuffer buffer = new RecordBuffer(1, 1);
+		buffer.fail(new IllegalStateException("node failed"));
+		buffer.take();
+	}
+}
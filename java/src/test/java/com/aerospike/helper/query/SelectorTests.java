@@ -1,6 +1,12 @@
 package com.aerospike.helper.query;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -133,6 +139,19 @@ public class SelectorTests extends HelperTests{
 		}
 	}
 	@Test
+	public void selectKeepsQualifiers() throws IOException {
+		IndexTask task = this.client.createIndex(null, TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, "age_index", "age", IndexType.NUMERIC);
+		task.waitTillComplete(50);
+		queryEngine.refreshCluster();
+		Qualifier qual1 = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("green"));
+		Qualifier qual2 = new Qualifier("age", Qualifier.FilterOperation.BETWEEN, Value.get(28), Value.get(29));
+		Qualifier[] qualifiers = new Qualifier[] {qual1, qual2};
+		KeyRecordIterator it = queryEngine.select(TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, null, qualifiers);
+		it.close();
+		Assert.assertSame(qual1, qualifiers[0]);
+		Assert.assertSame(qual2, qualifiers[1]);
+	}
+	@Test
 	public void selectWithGeneration() throws IOException {
 		queryEngine.refreshCluster();
 		Qualifier qual1 = new GenerationQualifier(Qualifier.FilterOperation.GTEQ, Value.get(1));
@@ -147,4 +166,354 @@ public class SelectorTests extends HelperTests{
 		}
 	}
 
+	@Test
+	public void selectParallel() throws IOException {
+		Qualifier qual1 = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue"));
+		Statement stmt = new Statement();
+		stmt.setNamespace(TestQueryEngine.NAMESPACE);
+		stmt.setSetName(TestQueryEngine.SET_NAME);
+		KeyRecordIterator it = queryEngine.selectParallel(stmt, false, qual1);
+		int count = 0;
+		try {
+			while (it.hasNext()){
+				KeyRecord rec = it.next();
+				Assert.assertEquals("blue", rec.record.getString("color"));
+				count++;
+			}
+		} finally {
+			it.close();
+		}
+		Assert.assertEquals(TestQueryEngine.RECORD_COUNT / 5, count);
+	}
+
+	@Test
+	public void selectWithPrefetch() throws IOException {
+		Qualifier qual1 = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue"));
+		queryEngine.setPrefetch(50, 16 * 1024);
+		KeyRecordIterator it = queryEngine.select(TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, null, qual1);
+		int count = 0;
+		try {
+			while (it.hasNext()){
+				KeyRecord rec = it.next();
+				Assert.assertEquals("blue", rec.record.getString("color"));
+				count++;
+			}
+		} finally {
+			it.close();
+			queryEngine.setPrefetch(0, 0);
+		}
+		Assert.assertEquals(TestQueryEngine.RECORD_COUNT / 5, count);
+	}
+
+	@Test
+	public void selectSortedWithLimit() throws IOException {
+		Qualifier qual1 = new Qualifier("color", Qualifier.FilterOperation.NOTEQ, Value.get("blue"));
+		Map<String, String> sortMap = new LinkedHashMap<String, String>();
+		sortMap.put("age", "DESC");
+		sortMap.put("name", "ASC");
+		Statement stmt = new Statement();
+		stmt.setNamespace(TestQueryEngine.NAMESPACE);
+		stmt.setSetName(TestQueryEngine.SET_NAME);
+		KeyRecordIterator it = queryEngine.select(stmt, sortMap, 50, qual1);
+		int count = 0;
+		KeyRecord previous = null;
+		try {
+			while (it.hasNext()){
+				KeyRecord rec = it.next();
+				Assert.assertEquals(29, rec.record.getInt("age"));
+				if (previous != null)
+					Assert.assertTrue(previous.record.getString("name").compareTo(rec.record.getString("name")) <= 0);
+				previous = rec;
+				count++;
+			}
+		} finally {
+			it.close();
+		}
+		Assert.assertEquals(50, count);
+	}
+
+	@Test
+	public void selectWithOffsetAndLimit() throws IOException {
+		Qualifier qual1 = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("green"));
+		Statement stmt = new Statement();
+		stmt.setNamespace(TestQueryEngine.NAMESPACE);
+		stmt.setSetName(TestQueryEngine.SET_NAME);
+		KeyRecordIterator it = queryEngine.select(stmt, 10, 25, qual1);
+		int count = 0;
+		try {
+			while (it.hasNext()){
+				KeyRecord rec = it.next();
+				Assert.assertEquals("green", rec.record.getString("color"));
+				count++;
+			}
+		} finally {
+			it.close();
+		}
+		Assert.assertEquals(25, count);
+	}
+
+	@Test
+	public void selectWithBinProjection() throws IOException {
+		Qualifier qual1 = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue"));
+		Statement stmt = new Statement();
+		stmt.setNamespace(TestQueryEngine.NAMESPACE);
+		stmt.setSetName(TestQueryEngine.SET_NAME);
+		stmt.setBinNames("name", "age");
+		KeyRecordIterator it = queryEngine.select(stmt, qual1);
+		try {
+			while (it.hasNext()){
+				KeyRecord rec = it.next();
+				Assert.assertEquals(2, rec.record.bins.size());
+				Assert.assertNotNull(rec.record.getString("name"));
+				Assert.assertNull(rec.record.getValue("color"));
+			}
+		} finally {
+			it.close();
+		}
+	}
+
+	@Test
+	public void selectInOnIndex() throws IOException {
+		IndexTask task = this.client.createIndex(null, TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, "age_index", "age", IndexType.NUMERIC);
+		task.waitTillComplete(50);
+		queryEngine.refreshCluster();
+		Qualifier qual1 = new Qualifier("age", Qualifier.FilterOperation.IN, Value.get(Arrays.asList(25, 27)));
+		KeyRecordIterator it = queryEngine.select(TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, null, qual1);
+		int count = 0;
+		try {
+			while (it.hasNext()){
+				KeyRecord rec = it.next();
+				int age = rec.record.getInt("age");
+				Assert.assertTrue(age == 25 || age == 27);
+				count++;
+			}
+		} finally {
+			it.close();
+		}
+		Assert.assertEquals(TestQueryEngine.RECORD_COUNT * 2 / 5, count);
+	}
+
+	@Test
+	public void selectOrWithoutDuplicates() throws IOException {
+		IndexTask task = this.client.createIndex(null, TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, "age_index", "age", IndexType.NUMERIC);
+		task.waitTillComplete(50);
+		queryEngine.refreshCluster();
+		Qualifier qual1 = new OrQualifier(
+				new Qualifier("age", Qualifier.FilterOperation.BETWEEN, Value.get(25), Value.get(26)),
+				new Qualifier("age", Qualifier.FilterOperation.EQ, Value.get(26)));
+		Qualifier qual2 = new Qualifier("color", Qualifier.FilterOperation.NOTEQ, Value.get("green"));
+		KeyRecordIterator it = queryEngine.select(TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, null, qual1, qual2);
+		java.util.Set<String> names = new HashSet<String>();
+		try {
+			while (it.hasNext()){
+				KeyRecord rec = it.next();
+				int age = rec.record.getInt("age");
+				Assert.assertTrue(age == 25 || age == 26);
+				Assert.assertTrue(names.add(rec.record.getString("name")));
+			}
+		} finally {
+			it.close();
+		}
+		Assert.assertEquals(TestQueryEngine.RECORD_COUNT * 2 / 5, names.size());
+	}
+
+	@Test
+	public void selectOrKeepsFilter() throws IOException {
+		IndexTask task = this.client.createIndex(null, TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, "age_index", "age", IndexType.NUMERIC);
+		task.waitTillComplete(50);
+		queryEngine.refreshCluster();
+		Filter filter = Filter.range("age", 28, 29);
+		Qualifier qual1 = new OrQualifier(
+				new Qualifier("age", Qualifier.FilterOperation.EQ, Value.get(25)),
+				new Qualifier("age", Qualifier.FilterOperation.EQ, Value.get(28)));
+		KeyRecordIterator it = queryEngine.select(TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, filter, qual1);
+		int count = 0;
+		try {
+			while (it.hasNext()){
+				KeyRecord rec = it.next();
+				Assert.assertEquals(28, rec.record.getInt("age"));
+				count++;
+			}
+		} finally {
+			it.close();
+		}
+		Assert.assertEquals(TestQueryEngine.RECORD_COUNT / 5, count);
+	}
+
+	@Test
+	public void selectOrWithLuaFilter() throws IOException {
+		Qualifier qual1 = new OrQualifier(
+				new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue")),
+				new Qualifier("animal", Qualifier.FilterOperation.EQ, Value.get("dog")));
+		KeyRecordIterator it = queryEngine.select(TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, null, qual1);
+		int count = 0;
+		try {
+			while (it.hasNext()){
+				KeyRecord rec = it.next();
+				Assert.assertTrue(rec.record.getString("color").equals("blue") || rec.record.getString("animal").equals("dog"));
+				count++;
+			}
+		} finally {
+			it.close();
+		}
+		Assert.assertEquals(TestQueryEngine.RECORD_COUNT * 2 / 5, count);
+	}
+
+	@Test
+	public void selectOnIntersectionOfIndexes() throws IOException {
+		IndexTask task = this.client.createIndex(null, TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, "age_index", "age", IndexType.NUMERIC);
+		task.waitTillComplete(50);
+		task = this.client.createIndex(null, TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, "color_index", "color", IndexType.STRING);
+		task.waitTillComplete(50);
+		queryEngine.refreshCluster();
+		Qualifier qual1 = new Qualifier("age", Qualifier.FilterOperation.BETWEEN, Value.get(25), Value.get(27));
+		Qualifier qual2 = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue"));
+		Qualifier qual3 = new Qualifier("animal", Qualifier.FilterOperation.EQ, Value.get("cat"));
+		KeyRecordIterator it = queryEngine.select(TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, null, qual1, qual2, qual3);
+		int count = 0;
+		try {
+			while (it.hasNext()){
+				KeyRecord rec = it.next();
+				Assert.assertEquals("blue", rec.record.getString("color"));
+				Assert.assertEquals("cat", rec.record.getString("animal"));
+				Assert.assertEquals(25, rec.record.getInt("age"));
+				count++;
+			}
+		} finally {
+			it.close();
+		}
+		Assert.assertEquals(TestQueryEngine.RECORD_COUNT / 5, count);
+	}
+
+	@Test
+	public void selectWithClientFilter() throws IOException {
+		queryEngine.setUsePredExp(false);
+		queryEngine.setFilterMode(QueryEngine.FilterMode.CLIENT);
+		Qualifier qual1 = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue"));
+		Qualifier qual2 = new Qualifier("animal", Qualifier.FilterOperation.START_WITH, Value.get("ca"));
+		KeyRecordIterator it = queryEngine.select(TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, null, qual1, qual2);
+		int count = 0;
+		try {
+			while (it.hasNext()){
+				KeyRecord rec = it.next();
+				Assert.assertEquals("blue", rec.record.getString("color"));
+				Assert.assertEquals("cat", rec.record.getString("animal"));
+				count++;
+			}
+		} finally {
+			it.close();
+		}
+		Assert.assertEquals(TestQueryEngine.RECORD_COUNT / 5, count);
+	}
+
+	@Test
+	public void selectMultipleKeys() throws IOException {
+		List<Value> keys = new ArrayList<Value>();
+		for (int x = 1; x <= 500; x++)
+			keys.add(Value.get("selector-test:" + x));
+		keys.add(Value.get("selector-test:missing"));
+		queryEngine.setBatchSize(100);
+		Statement stmt = new Statement();
+		stmt.setNamespace(TestQueryEngine.NAMESPACE);
+		stmt.setSetName(TestQueryEngine.SET_NAME);
+		KeyRecordIterator it = queryEngine.select(stmt, new MultiKeyQualifier(keys));
+		int count = 0;
+		try {
+			while (it.hasNext()){
+				KeyRecord rec = it.next();
+				Assert.assertNotNull(rec.record.getString("name"));
+				count++;
+			}
+		} finally {
+			it.close();
+		}
+		Assert.assertEquals(500, count);
+	}
+
+	@Test
+	public void selectMultipleKeysWithQualifier() throws IOException {
+		List<Value> keys = new ArrayList<Value>();
+		for (int x = 1; x <= 500; x++)
+			keys.add(Value.get("selector-test:" + x));
+		Qualifier qual1 = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue"));
+		KeyRecordIterator it = queryEngine.select(TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, null, new MultiKeyQualifier(keys), qual1);
+		int count = 0;
+		try {
+			while (it.hasNext()){
+				KeyRecord rec = it.next();
+				Assert.assertEquals("blue", rec.record.getString("color"));
+				count++;
+			}
+		} finally {
+			it.close();
+		}
+		Assert.assertEquals(100, count);
+	}
+	@Test
+	public void selectKeyWithQualifier() throws IOException {
+		KeyQualifier kq = new KeyQualifier(Value.get("selector-test:1"));
+		Qualifier blue = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue"));
+		Qualifier red = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("red"));
+		KeyRecordIterator it = queryEngine.select(TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, null, kq, blue);
+		try {
+			Assert.assertTrue(it.hasNext());
+			Assert.assertEquals("blue", it.next().record.getString("color"));
+			Assert.assertFalse(it.hasNext());
+		} finally {
+			it.close();
+		}
+		it = queryEngine.select(TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, null, kq, red);
+		try {
+			Assert.assertFalse(it.hasNext());
+		} finally {
+			it.close();
+		}
+	}
+	@Test
+	public void selectKeyWithQualifierPaged() throws IOException {
+		KeyQualifier kq = new KeyQualifier(Value.get("selector-test:1"));
+		Qualifier blue = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue"));
+		Qualifier red = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("red"));
+		Map<String, String> sortMap = new LinkedHashMap<String, String>();
+		sortMap.put("age", "DESC");
+		Statement stmt = new Statement();
+		stmt.setNamespace(TestQueryEngine.NAMESPACE);
+		stmt.setSetName(TestQueryEngine.SET_NAME);
+		KeyRecordIterator it = queryEngine.select(stmt, sortMap, 0, 10, kq, blue);
+		try {
+			Assert.assertTrue(it.hasNext());
+			Assert.assertEquals("blue", it.next().record.getString("color"));
+			Assert.assertFalse(it.hasNext());
+		} finally {
+			it.close();
+		}
+		it = queryEngine.select(stmt, 0, 10, kq, red);
+		try {
+			Assert.assertFalse(it.hasNext());
+		} finally {
+			it.close();
+		}
+	}
+
+	@Test
+	public void selectOneWitKeyHedged() throws IOException {
+		queryEngine.setHedgedReads(95.0, 2, 5);
+		try {
+			Statement stmt = new Statement();
+			stmt.setNamespace(TestQueryEngine.NAMESPACE);
+			stmt.setSetName(TestQueryEngine.SET_NAME);
+			for (int x = 1; x <= 100; x++){
+				KeyRecordIterator it = queryEngine.select(stmt, new KeyQualifier(Value.get("selector-test:" + x)));
+				try {
+					Assert.assertTrue(it.hasNext());
+					Assert.assertNotNull(it.next().record.getString("name"));
+				} finally {
+					it.close();
+				}
+			}
+			Assert.assertEquals(100L, (long) queryEngine.getHedgedReadCounts().get("read"));
+		} finally {
+			queryEngine.setHedgedReads(0, 0, 0);
+		}
+	}
 }
@@ -3,15 +3,22 @@ package com.aerospike.helper.query;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 import com.aerospike.client.Bin;
 import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
 import com.aerospike.client.Record;
 import com.aerospike.client.Value;
+import com.aerospike.client.cdt.ListOperation;
+import com.aerospike.client.query.Filter;
+import com.aerospike.client.query.IndexType;
 import com.aerospike.client.query.Statement;
+import com.aerospike.client.task.ExecuteTask;
+import com.aerospike.client.task.IndexTask;
 
 public class UpdatorTests extends HelperTests{
 
@@ -94,5 +101,164 @@ public class UpdatorTests extends HelperTests{
 		Assert.assertEquals((Long)200L, (Long)counts.get("read"));
 		Assert.assertEquals((Long)200L, (Long)counts.get("write"));
 	}
+	@Test
+	public void updateByKeyWithQualifier(){
+		Statement stmt = new Statement();
+		stmt.setNamespace(TestQueryEngine.NAMESPACE);
+		stmt.setSetName(TestQueryEngine.SET_NAME);
+		ArrayList<Bin> bins = new ArrayList<Bin>() {{
+		    add(new Bin("ending", "blue key"));
+		}};
+		// selector-test:1 is blue, selector-test:2 is red
+		KeyQualifier kq = new KeyQualifier(Value.get("selector-test:1"));
+		Qualifier qual1 = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue"));
+		Map<String, Long> counts = queryEngine.update(stmt, bins, kq, qual1);
+		Assert.assertEquals((Long)1L, (Long)counts.get("write"));
+
+		kq = new KeyQualifier(Value.get("selector-test:2"));
+		counts = queryEngine.update(stmt, bins, kq, qual1);
+		Assert.assertEquals((Long)1L, (Long)counts.get("read"));
+		Assert.assertEquals((Long)0L, (Long)counts.get("write"));
+		Record record = this.client.get(null, new Key(TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, "selector-test:2"));
+		Assert.assertNotEquals("blue key", record.getString("ending"));
+	}
+	@Test
+	public void updateOnServer() {
+		Qualifier qual1 = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue"));
+		Qualifier qual2 = new Qualifier("name", Qualifier.FilterOperation.START_WITH, Value.get("na"));
+		ArrayList<Bin> bins = new ArrayList<Bin>() {{
+		    add(new Bin("server", "updated on server"));
+		}};
+		Statement stmt = new Statement();
+		stmt.setNamespace(TestQueryEngine.NAMESPACE);
+		stmt.setSetName(TestQueryEngine.SET_NAME);
+		ExecuteTask task = queryEngine.updateOnServer(stmt, bins, qual1, qual2);
+		task.waitTillComplete();
+		Map<String, Long> status = queryEngine.getJobStatus(stmt);
+		Assert.assertEquals(status.get("nodes"), status.get("nodesDone"));
 
+		stmt = new Statement();
+		stmt.setNamespace(TestQueryEngine.NAMESPACE);
+		stmt.setSetName(TestQueryEngine.SET_NAME);
+		KeyRecordIterator it = queryEngine.select(stmt, false, null, 
+				new Qualifier("server", Qualifier.FilterOperation.EQ, Value.get("updated on server")));
+		int count = 0;
+		try {
+			while (it.hasNext()){
+				Record record = it.next().record;
+				Assert.assertEquals("blue", record.getString("color"));
+				count++;
+			}
+		} finally {
+			try {
+				it.close();
+			} catch (IOException e) {
+			}
+		}
+		Assert.assertEquals(200, count);
+	}
+	@Test
+	public void updateWithOperations() {
+		// selector-test:1 is blue
+		Key key = new Key(TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, "selector-test:1");
+		Record before = this.client.get(null, key);
+		Qualifier qual1 = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue"));
+		Operation[] operations = new Operation[] {
+				Operation.add(new Bin("counter", 1)),
+				ListOperation.append("visits", Value.get("updated"))
+		};
+		Statement stmt = new Statement();
+		stmt.setNamespace(TestQueryEngine.NAMESPACE);
+		stmt.setSetName(TestQueryEngine.SET_NAME);
+		Map<String, Long> counts = queryEngine.update(stmt, operations, qual1);
+		Assert.assertEquals(counts.get("read"), counts.get("write"));
+		Record after = this.client.get(null, key);
+		Assert.assertEquals(before.getLong("counter") + 1, after.getLong("counter"));
+		Assert.assertEquals(before.getList("visits") == null ? 1 : before.getList("visits").size() + 1, after.getList("visits").size());
+	}
+	@Test
+	public void updateRetriesConflicts() throws Exception {
+		final Key key = new Key(TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, "selector-test:1");
+		final AtomicBoolean running = new AtomicBoolean(true);
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (running.get())
+					client.touch(null, key);
+			}
+		});
+		writer.start();
+		Map<String, Long> counts;
+		try {
+			Qualifier qual1 = new Qualifier("color", Qualifier.FilterOperation.EQ, Value.get("blue"));
+			ArrayList<Bin> bins = new ArrayList<Bin>() {{
+			    add(new Bin("contended", "updated"));
+			}};
+			Statement stmt = new Statement();
+			stmt.setNamespace(TestQueryEngine.NAMESPACE);
+			stmt.setSetName(TestQueryEngine.SET_NAME);
+			counts = queryEngine.update(stmt, bins, qual1);
+		} finally {
+			running.set(false);
+			writer.join();
+		}
+		// every selected record is written, no longer matches, or is still conflicting after the last retry
+		Assert.assertEquals((long) counts.get("read"), 
+				counts.get("write") + counts.get("noLongerMatching") + counts.get("unresolved") + counts.get("failed"));
+	}
+	@Test
+	public void updateAsJob() {
+		Key checkpoint = new Key(TestQueryEngine.NAMESPACE, Job.DEFAULT_CHECKPOINT_SET, "update-as-job");
+		this.client.delete(null, checkpoint);
+		Qualifier qual1 = new Qualifier("color", Qualifier.FilterOperation.ENDS_WITH, Value.get("e"));
+		ArrayList<Bin> bins = new ArrayList<Bin>() {{
+		    add(new Bin("ending", "ends with e"));
+		}};
+		Statement stmt = new Statement();
+		stmt.setNamespace(TestQueryEngine.NAMESPACE);
+		stmt.setSetName(TestQueryEngine.SET_NAME);
+		try {
+			Job job = queryEngine.submitUpdate("update-as-job", stmt, bins, qual1);
+			Map<String, Long> progress = job.waitTillComplete();
+			Assert.assertEquals(Job.Status.DONE, job.getStatus());
+			Assert.assertEquals((Long)400L, progress.get("read"));
+			Assert.assertEquals((Long)400L, progress.get("write"));
+
+			// a completed job runs again from the first bucket
+			job = queryEngine.submitUpdate("update-as-job", stmt, bins, qual1);
+			progress = job.waitTillComplete();
+			Assert.assertEquals(Job.Status.DONE, job.getStatus());
+			Assert.assertEquals((Long)400L, progress.get("write"));
+		} finally {
+			this.client.delete(null, checkpoint);
+		}
+	}
+	@Test
+	public void updateAsJobKeepsFilter() {
+		IndexTask task = this.client.createIndex(null, TestQueryEngine.NAMESPACE, TestQueryEngine.SET_NAME, "age_index", "age", IndexType.NUMERIC);
+		task.waitTillComplete(50);
+		queryEngine.refreshCluster();
+		ArrayList<Bin> bins = new ArrayList<Bin>() {{
+		    add(new Bin("job-filter", 1));
+		}};
+		Statement stmt = new Statement();
+		stmt.setNamespace(TestQueryEngine.NAMESPACE);
+		stmt.setSetName(TestQueryEngine.SET_NAME);
+		stmt.setFilters(Filter.range("age", 28, 29));
+		Job job = queryEngine.submitUpdate(null, stmt, bins);
+		Map<String, Long> progress = job.waitTillComplete();
+		Assert.assertEquals(Job.Status.DONE, job.getStatus());
+		Assert.assertEquals((Long)400L, progress.get("write"));
+	}
+	@Test
+	public void updateWithNullQualifiers() {
+		ArrayList<Bin> bins = new ArrayList<Bin>() {{
+		    add(new Bin("touched", 1));
+		}};
+		Statement stmt = new Statement();
+		stmt.setNamespace(TestQueryEngine.NAMESPACE);
+		stmt.setSetName(TestQueryEngine.SET_NAME);
+		Map<String, Long> counts = queryEngine.update(stmt, bins, (Qualifier[]) null);
+		Assert.assertTrue(counts.get("write") >= TestQueryEngine.RECORD_COUNT);
+	}
 }
@@ -0,0 +1,82 @@
+package com.aerospike.helper.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aerospike.client.Bin;
+import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
+import com.aerospike.client.Value;
+import com.aerospike.client.cdt.ListOperation;
+
+/**
+ * Unit tests for {@link WriteCoalescer}.
+ */
+public class WriteCoalescerUnitTests {
+
+	@Test
+	public void putKeepsLatestValue() {
+		List<Operation> pending = new ArrayList<Operation>();
+		WriteCoalescer.merge(pending, new Operation[] {Operation.put(new Bin("a", 1)), Operation.put(new Bin("b", "x"))});
+		WriteCoalescer.merge(pending, new Operation[] {Operation.put(new Bin("a", 2))});
+		Assert.assertEquals(2, pending.size());
+		Assert.assertEquals("b", pending.get(0).binName);
+		Assert.assertEquals(2L, ((Number) pending.get(1).value.getObject()).longValue());
+	}
+
+	@Test
+	public void putReplacesPendingOperations() {
+		List<Operation> pending = new ArrayList<Operation>();
+		WriteCoalescer.merge(pending, new Operation[] {Operation.add(new Bin("a", 1)), ListOperation.append("list", Value.get(1))});
+		WriteCoalescer.merge(pending, new Operation[] {Operation.put(new Bin("a", 5))});
+		Assert.assertEquals(2, pending.size());
+		Assert.assertEquals(Operation.Type.WRITE, pending.get(1).type);
+	}
+
+	@Test
+	public void sumsAdds() {
+		List<Operation> pending = new ArrayList<Operation>();
+		for (int i = 0; i < 10; i++)
+			WriteCoalescer.merge(pending, new Operation[] {Operation.add(new Bin("counter", 2))});
+		Assert.assertEquals(1, pending.size());
+		Assert.assertEquals(20L, ((Number) pending.get(0).value.getObject()).longValue());
+	}
+
+	@Test
+	public void keepsOrderOfOtherOperations() {
+		List<Operation> pending = new ArrayList<Operation>();
+		WriteCoalescer.merge(pending, new Operation[] {Operation.add(new Bin("counter", 1))});
+		WriteCoalescer.merge(pending, new Operation[] {ListOperation.append("list", Value.get(1))});
+		WriteCoalescer.merge(pending, new Operation[] {ListOperation.append("list", Value.get(2))});
+		WriteCoalescer.merge(pending, new Operation[] {Operation.add(new Bin("counter", 1))});
+		Assert.assertEquals(3, pending.size());
+		Assert.assertEquals(2L, ((Number) pending.get(0).value.getObject()).longValue());
+	}
+
+	@Test
+	public void keepsFailedWrites() {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		// without a client every write fails
+		WriteCoalescer coalescer = new WriteCoalescer(null, null, executor, 60000, 4, 100);
+		try {
+			Key key = new Key("test", "coalescer", "failed");
+			coalescer.operate(key, Operation.add(new Bin("counter", 1)));
+			coalescer.operate(key, Operation.add(new Bin("counter", 2)));
+			coalescer.flush();
+			Map<Key, List<Operation>> failed = coalescer.takeFailedWrites();
+			Assert.assertEquals(1, failed.size());
+			Assert.assertEquals(3L, ((Number) failed.get(key).get(0).value.getObject()).longValue());
+			Assert.assertEquals(1L, (long) coalescer.getCounts().get("failed"));
+			Assert.assertTrue(coalescer.takeFailedWrites().isEmpty());
+		} finally {
+			coalescer.close();
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.aerospike.helper.query;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.ResultCode;
+
+/**
+ * Unit tests for {@link WritePipeline}.
+ */
+public class WritePipelineUnitTests {
+	private ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void boundsWritesInFlight() throws Exception {
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+		WritePipeline pipeline = new WritePipeline(executor, 4);
+		for (int i = 0; i < 100; i++){
+			pipeline.submit(new WritePipeline.Write() {
+				@Override
+				public boolean execute() throws AerospikeException {
+					int current = inFlight.incrementAndGet();
+					synchronized (maxInFlight) {
+						if (current > maxInFlight.get())
+							maxInFlight.set(current);
+					}
+					try {
+						Thread.sleep(1);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					inFlight.decrementAndGet();
+					return true;
+				}
+			});
+		}
+		pipeline.await();
+		Assert.assertTrue(maxInFlight.get() <= 4);
+		Assert.assertEquals(100, pipeline.getWritten());
+	}
+
+	@Test
+	public void countsOutcomes() throws Exception {
+		WritePipeline pipeline = new WritePipeline(executor, 8);
+		for (int i = 0; i < 30; i++){
+			final int outcome = i % 3;
+			pipeline.submit(new WritePipeline.Write() {
+				@Override
+				public boolean execute() throws AerospikeException {
+					if (outcome == 1)
+						throw new AerospikeException(ResultCode.GENERATION_ERROR);
+					if (outcome == 2)
+						throw new AerospikeException(ResultCode.TIMEOUT);
+					return true;
+				}
+			});
+		}
+		pipeline.await();
+		Map<String, Long> counts = pipeline.getCounts();
+		Assert.assertEquals(10L, (long) counts.get("write"));
+		Assert.assertEquals(10L, (long) counts.get("conflict"));
+		Assert.assertEquals(10L, (long) counts.get("failed"));
+		Assert.assertEquals(30L, pipeline.getSubmitted());
+	}
+
+	@Test
+	public void windowCanChange() throws Exception {
+		WritePipeline pipeline = new WritePipeline(executor, 2);
+		pipeline.setWindow(0);
+		Assert.assertEquals(1, pipeline.getWindow());
+		pipeline.setWindow(16);
+		Assert.assertEquals(16, pipeline.getWindow());
+	}
+}
@@ -0,0 +1,85 @@
+package com.aerospike.helper.query;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.aerospike.client.ResultCode;
+import com.aerospike.helper.model.Namespace;
+
+/**
+ * Unit tests for {@link WriteThrottle}.
+ */
+public class WriteThrottleUnitTests {
+	private static final long FAST = 1000000L;	// 1 ms
+	private static final long SLOW = 50000000L;	// 50 ms
+
+	@Test
+	public void increasesWhileFast() {
+		WriteThrottle throttle = new WriteThrottle(null, "test", 10, 4, 1, 8);
+		for (int i = 0; i < 1000; i++)
+			throttle.onWrite(FAST, ResultCode.OK);
+		Assert.assertEquals(8, throttle.getWindow());
+		Assert.assertEquals(4, throttle.getIncreases());
+	}
+
+	@Test
+	public void halvesWhenSlow() {
+		WriteThrottle throttle = new WriteThrottle(null, "test", 10, 64, 1, 64);
+		for (int i = 0; i < 32; i++)
+			throttle.onWrite(SLOW, ResultCode.OK);
+		Assert.assertEquals(32, throttle.getWindow());
+		for (int i = 0; i < 1000; i++)
+			throttle.onWrite(SLOW, ResultCode.OK);
+		Assert.assertEquals(1, throttle.getWindow());
+	}
+
+	@Test
+	public void halvesOnOverload() {
+		WriteThrottle throttle = new WriteThrottle(null, "test", 10, 16, 1, 64);
+		for (int i = 0; i < 15; i++)
+			throttle.onWrite(FAST, ResultCode.OK);
+		throttle.onWrite(FAST, ResultCode.DEVICE_OVERLOAD);
+		Assert.assertEquals(8, throttle.getWindow());
+		Assert.assertTrue(WriteThrottle.isOverload(ResultCode.TIMEOUT));
+		Assert.assertFalse(WriteThrottle.isOverload(ResultCode.GENERATION_ERROR));
+	}
+
+	@Test
+	public void followsHealthMonitor() {
+		final WriteThrottle.Health[] health = { WriteThrottle.Health.OK };
+		WriteThrottle.HealthMonitor monitor = new WriteThrottle.HealthMonitor() {
+			@Override
+			public WriteThrottle.Health getHealth(String namespace) {
+				return health[0];
+			}
+		};
+		WriteThrottle throttle = new WriteThrottle(monitor, "test", 10, 16, 1, 64);
+		health[0] = WriteThrottle.Health.NEAR_HWM;
+		for (int i = 0; i < 16; i++)
+			throttle.onWrite(FAST, ResultCode.OK);
+		Assert.assertEquals(8, throttle.getWindow());
+		health[0] = WriteThrottle.Health.HWM_BREACHED;
+		for (int i = 0; i < 8; i++)
+			throttle.onWrite(FAST, ResultCode.OK);
+		Assert.assertEquals(1, throttle.getWindow());
+		Assert.assertEquals(WriteThrottle.Health.HWM_BREACHED, throttle.getHealth());
+	}
+
+	@Test
+	public void namespaceHealth() {
+		Assert.assertEquals(WriteThrottle.Health.OK,
+				WriteThrottle.health(namespace("memory_free_pct=80;high-water-memory-pct=60;stop_writes=false;hwm_breached=false")));
+		Assert.assertEquals(WriteThrottle.Health.NEAR_HWM,
+				WriteThrottle.health(namespace("memory_free_pct=43;high-water-memory-pct=60;stop_writes=false;hwm_breached=false")));
+		Assert.assertEquals(WriteThrottle.Health.HWM_BREACHED,
+				WriteThrottle.health(namespace("free-pct-memory=30;high-water-memory-pct=60;hwm-breached=true")));
+		Assert.assertEquals(WriteThrottle.Health.STOP_WRITES,
+				WriteThrottle.health(namespace("memory_free_pct=5;high-water-memory-pct=60;stop_writes=true;hwm_breached=true")));
+	}
+
+	private static Namespace namespace(String info){
+		Namespace namespace = new Namespace("test");
+		namespace.setNamespaceInfo(info);
+		return namespace;
+	}
+}